@@ -0,0 +1,303 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The static method calls and static field accesses found while classes are
+ * visited. Whether a site makes an edge depends on how the class it refers
+ * to is classified, which is only known once every class has been visited,
+ * so the sites are kept until then and resolved in one go. Names are
+ * SymbolTable ids. Each distinct site of a method is stored once, as three
+ * ints: the target, that is the owner, kind and descriptor of the call or
+ * field access, the method, and how many times the method makes the call.
+ * The sites of a class follow one another, in a block headed by the class.
+ *
+ * The same targets recur across thousands of classes, so each is classified
+ * only once, and the verdict, the class it makes its callers use, is
+ * looked up for every site that refers to it. Sites are kept in Memory,
+ * as there may be far more of them than of classes.
+ *
+ * Classes are visited concurrently: each gathers its own sites in a
+ * ClassContext and adds them here in one block once it is done. When the
+ * classes were classified in an earlier pass, the sites of each class are
+ * instead resolved as they are added and not kept at all.
+ */
+class CallSites {
+  static final int INVOKE_STATIC = 0;
+  static final int FIELD_INSTRUCTION = 1;
+
+  // The fewest sites or targets worth resolving in a task of their own
+  private static final int SPLIT_THRESHOLD = 8192;
+
+  /**
+   * Turns sites back into calls on the detector, which refer to classes by
+   * their index in its ClassModel. Calls are made from several threads at
+   * once, but all the sites of one class are resolved by the same thread.
+   */
+  interface Resolver {
+    /**
+     * Returns the class which a static call makes its caller use, if the
+     * caller may use it at all, or -1.
+     */
+    int classifyInvokeStatic(int owner, int desc);
+
+    /**
+     * Returns the class which a static field access makes its caller use,
+     * or -1.
+     */
+    int classifyFieldInstruction(int owner);
+
+    /**
+     * Returns the class with an id, which made some of the sites.
+     */
+    int getClass(int classId);
+
+    /**
+     * Records that a method of a class uses the class a site was classified
+     * as, a number of times.
+     */
+    void use(int user, int used, boolean invokeStatic, int method, int count);
+  }
+
+  // The ids of class names and descriptors
+  private final SymbolTable symbols;
+
+  private final Memory memory;
+
+  // Distinct targets: owner and kind, and descriptor (or -1)
+  private final LongIntMap targetIds = new LongIntMap();
+  private int[] targets = new int[2 * 1024];
+  private int targetCount = 0;
+
+  // Pairs of class and the end of its sites, one per class
+  private IntColumn blocks;
+
+  // Triples of target, method and count
+  private IntColumn sites;
+
+  // Set once sites are resolved as they are added, with the verdict on each
+  // target classified so far, or -2
+  private Resolver resolver;
+  private int[] verdicts;
+
+  CallSites(SymbolTable symbols) {
+    this(symbols, Memory.HEAP);
+  }
+
+  CallSites(SymbolTable symbols, Memory memory) {
+    this.symbols = symbols;
+    this.memory = memory;
+    this.blocks = new IntColumn(memory);
+    this.sites = new IntColumn(memory);
+  }
+
+  public SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  /**
+   * Adds the sites of one class, given as owner and kind, descriptor, method
+   * and count, four ints each.
+   */
+  public synchronized void add(int classId, int[] classSites, int length) {
+    if (resolver != null) {
+      resolve(classId, classSites, length);
+      return;
+    }
+    for (int i = 0; i < length; i += 4) {
+      sites.add(target(classSites[i], classSites[i + 1]));
+      sites.add(classSites[i + 2]);
+      sites.add(classSites[i + 3]);
+    }
+    blocks.add(classId);
+    blocks.add(sites.size());
+  }
+
+  /**
+   * Returns the number of distinct sites recorded, counting a site once for
+   * each method making it.
+   */
+  public synchronized int size() {
+    return sites.size() / 3;
+  }
+
+  /**
+   * Returns the number of distinct targets the sites refer to.
+   */
+  public synchronized int getTargetCount() {
+    return targetCount;
+  }
+
+  /**
+   * Classifies every target once, then replays every site on a pool, then
+   * forgets them.
+   */
+  public synchronized void resolve(ForkJoinPool pool, Resolver resolver) {
+    int[] verdicts = new int[targetCount];
+    pool.invoke(new ClassifyTask(resolver, verdicts, 0, targetCount));
+    pool.invoke(new ResolveTask(resolver, verdicts, 0, blocks.size() / 2));
+    blocks.free();
+    sites.free();
+    blocks = new IntColumn(memory);
+    sites = new IntColumn(memory);
+  }
+
+  /**
+   * Resolves the sites added from now on straight away, classifying each
+   * target the first time it is met. Only allowed once every class has been
+   * classified, and before any site is added.
+   */
+  public synchronized void resolveAsAdded(Resolver resolver) {
+    this.resolver = resolver;
+    verdicts = new int[Math.max(16, targetCount)];
+    Arrays.fill(verdicts, -2);
+  }
+
+  private void resolve(int classId, int[] classSites, int length) {
+    int user = -1;
+    for (int i = 0; i < length; i += 4) {
+      int target = target(classSites[i], classSites[i + 1]);
+      if (target >= verdicts.length) {
+        int oldLength = verdicts.length;
+        verdicts = Arrays.copyOf(verdicts, 2 * target);
+        Arrays.fill(verdicts, oldLength, verdicts.length, -2);
+      }
+      if (verdicts[target] == -2) {
+        verdicts[target] = classify(resolver, target);
+      }
+      int used = verdicts[target];
+      if (used < 0) {
+        continue;
+      }
+      if (user < 0) {
+        user = resolver.getClass(classId);
+      }
+      resolver.use(user, used, (classSites[i] & 1) == INVOKE_STATIC,
+          classSites[i + 2], classSites[i + 3]);
+    }
+  }
+
+  private int classify(Resolver resolver, int target) {
+    int owner = targets[2 * target] >>> 1;
+    if ((targets[2 * target] & 1) == INVOKE_STATIC) {
+      return resolver.classifyInvokeStatic(owner, targets[2 * target + 1]);
+    }
+    return resolver.classifyFieldInstruction(owner);
+  }
+
+  private int target(int ownerAndKind, int desc) {
+    long key = (long) ownerAndKind << 32 | (desc & 0xffffffffL);
+    int target = targetIds.get(key);
+    if (target < 0) {
+      target = targetCount++;
+      targetIds.put(key, target);
+      if (2 * targetCount > targets.length) {
+        targets = Arrays.copyOf(targets, targets.length * 2);
+      }
+      targets[2 * target] = ownerAndKind;
+      targets[2 * target + 1] = desc;
+    }
+    return target;
+  }
+
+  /**
+   * Classifies the targets between two indices.
+   */
+  private class ClassifyTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Resolver resolver;
+    private final int[] verdicts;
+    private final int from;
+    private final int to;
+
+    ClassifyTask(Resolver resolver, int[] verdicts, int from, int to) {
+      this.resolver = resolver;
+      this.verdicts = verdicts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > SPLIT_THRESHOLD) {
+        int middle = from + (to - from) / 2;
+        invokeAll(new ClassifyTask(resolver, verdicts, from, middle),
+            new ClassifyTask(resolver, verdicts, middle, to));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        verdicts[i] = classify(resolver, i);
+      }
+    }
+  }
+
+  /**
+   * Resolves the sites of the classes between two blocks.
+   */
+  private class ResolveTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Resolver resolver;
+    private final int[] verdicts;
+    private final int from;
+    private final int to;
+
+    ResolveTask(Resolver resolver, int[] verdicts, int from, int to) {
+      this.resolver = resolver;
+      this.verdicts = verdicts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1 && end(to - 1) - end(from - 1) > 3 * SPLIT_THRESHOLD) {
+        int middle = from + (to - from) / 2;
+        invokeAll(new ResolveTask(resolver, verdicts, from, middle),
+            new ResolveTask(resolver, verdicts, middle, to));
+        return;
+      }
+      for (int block = from; block < to; block++) {
+        int user = -1;
+        for (int i = end(block - 1); i < end(block); i += 3) {
+          int target = sites.get(i);
+          int used = verdicts[target];
+          if (used < 0) {
+            continue;
+          }
+          if (user < 0) {
+            user = resolver.getClass(blocks.get(2 * block));
+          }
+          resolver.use(user, used, (targets[2 * target] & 1) == INVOKE_STATIC,
+              sites.get(i + 1), sites.get(i + 2));
+        }
+      }
+    }
+
+    /**
+     * Returns the offset just past the sites of a block, or 0 before the
+     * first.
+     */
+    private int end(int block) {
+      return block < 0 ? 0 : blocks.get(2 * block + 1);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.util.Arrays;
+
+/**
+ * The state of one class while it is being read. Visitors report what they
+ * find to it rather than to the SingletonDetector, so that several classes
+ * can be read at once, each on its own thread with its own context. The
+ * static calls and field accesses it makes are gathered here, counted by the
+ * method making them, and handed to the detector's CallSites in one go by
+ * finish(). Counting a site again allocates nothing.
+ */
+public class ClassContext {
+  private final SingletonDetector sd;
+  private final CallSites callSites;
+  private final SymbolTable symbols;
+
+  // How far the class is parsed, as a ClassPrefilter level
+  private final int level;
+
+  // The class being read
+  private Clazz currClass;
+  private int classId = -1;
+
+  // The method being read: its symbol id if methods are named, or else its
+  // place in the class, and how many methods have been started. A name is
+  // only interned once the method is found to make a site.
+  private int method = -1;
+  private int methods = 0;
+  private String methodName;
+  private String methodDesc;
+
+  // Owner and kind, descriptor (or -1), method and count, each site of a
+  // method recorded once, and where the sites of the current method are
+  private int[] sites = new int[32];
+  private int length = 0;
+  private final LongIntMap recorded = new LongIntMap();
+
+  ClassContext(SingletonDetector sd, CallSites callSites, int level) {
+    this.sd = sd;
+    this.callSites = callSites;
+    this.symbols = callSites.getSymbols();
+    this.level = level;
+  }
+
+  int getLevel() {
+    return level;
+  }
+
+  public void setCurrClass(String name) {
+    classId = symbols.intern(sd.removePrefix(name));
+    currClass = sd.getOrCreateClass(classId);
+  }
+
+  public Clazz getCurrClass() {
+    return currClass;
+  }
+
+  public void addStaticField(String name, String desc) {
+    // Visitor guarantees field is private, static and not final
+    if (desc.startsWith("L")) {
+      desc = desc.substring(1, desc.length() - 1);
+      currClass.addStaticField(name, symbols.intern(sd.removePrefix(desc)));
+    }
+  }
+
+  public void visitStaticField(String name, String desc) {
+    // Visitor guarantees field is public and static
+    currClass.visitStaticField(name, desc, sd.getFlags());
+  }
+
+  /**
+   * Starts a method, whose static calls and field accesses are counted
+   * together. Methods are told apart by their place in the class, unless
+   * the detector keeps the methods making each edge, when they are named.
+   */
+  public void startMethod(String name, String desc) {
+    method = methods++;
+    recorded.clear();
+    if (sd.getFlags().recordsEdgeMethods()) {
+      methodName = name;
+      methodDesc = desc;
+    }
+  }
+
+  /**
+   * Sets the method the sites added next are made by, as an id given by
+   * startMethod() or an equivalent.
+   */
+  void setMethod(int method) {
+    if (method != this.method) {
+      this.method = method;
+      methodName = null;
+      recorded.clear();
+    }
+  }
+
+  public void visitStaticMethod(String name, String desc) {
+    String[] ret = sd.splitDesc(desc);
+    String params = ret[0];
+    String returnType = ret[1];
+    if (returnType.startsWith("L")) {
+      returnType = returnType.substring(1);
+      if (!returnType.startsWith("java/")
+          && returnType.startsWith(sd.getPrefix())) {
+        currClass.visitStaticMethod(name, params,
+            symbols.intern(sd.removePrefix(returnType)), sd.getFlags());
+      }
+    }
+  }
+
+  /**
+   * Records a static method call made by the current class. Calls returning
+   * a primitive or an array can never make an edge and are dropped here.
+   */
+  public void invokeStatic(String referencedClass, String desc) {
+    if (desc.charAt(desc.lastIndexOf(')') + 1) == 'L') {
+      addInvokeStatic(symbols.intern(referencedClass), symbols.intern(desc),
+          1);
+    }
+  }
+
+  /**
+   * Records a static field access made by the current class.
+   */
+  public void fieldInstruction(String owner) {
+    addFieldInstruction(symbols.intern(owner), 1);
+  }
+
+  /**
+   * Records a static call made a number of times by the current method, by
+   * the ids of its owner and descriptor, as given by SymbolTable.intern().
+   */
+  void addInvokeStatic(int owner, int desc, int count) {
+    add(owner << 1 | CallSites.INVOKE_STATIC, desc, count);
+  }
+
+  void addFieldInstruction(int owner, int count) {
+    add(owner << 1 | CallSites.FIELD_INSTRUCTION, -1, count);
+  }
+
+  /**
+   * Hands the sites recorded to the detector, once the class has been read.
+   */
+  void finish() {
+    if (length > 0) {
+      callSites.add(classId, sites, length);
+    }
+  }
+
+  private void add(int ownerAndKind, int desc, int count) {
+    long key = (long) ownerAndKind << 32 | (desc & 0xffffffffL);
+    int offset = recorded.get(key);
+    if (offset >= 0) {
+      sites[offset + 3] += count;
+      return;
+    }
+    if (methodName != null) {
+      method = symbols.intern(methodName + methodDesc);
+      methodName = null;
+    }
+    recorded.put(key, length);
+    if (length + 4 > sites.length) {
+      sites = Arrays.copyOf(sites, sites.length * 2);
+    }
+    sites[length++] = ownerAndKind;
+    sites[length++] = desc;
+    sites[length++] = method;
+    sites[length++] = count;
+  }
+}
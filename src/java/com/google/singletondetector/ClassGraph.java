@@ -0,0 +1,291 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.util.Arrays;
+
+/**
+ * Which classes use which, held in IntColumns by class index. Uses are
+ * added while call sites are resolved, from several threads at once, and
+ * then frozen into compressed sparse rows: for each class, the sorted,
+ * distinct classes it uses, and the classes using it. A use costs two ints
+ * in each direction, with no boxing and no per-class sets.
+ *
+ * Each use is weighed by the call sites making it and by the distinct
+ * methods they are in, two more ints. The methods themselves, by id, are
+ * only kept if asked for.
+ */
+class ClassGraph {
+  private final Memory memory;
+
+  // Whether the methods making each use are kept
+  private final boolean keepsMethods;
+
+  // User, used class, method and count of call sites, possibly repeated,
+  // until frozen
+  private IntColumn edges;
+
+  // Row offsets and columns of the classes each class uses, and of the
+  // classes using each class
+  private IntColumn useOffsets;
+  private IntColumn uses;
+  private IntColumn userOffsets;
+  private IntColumn users;
+  private int useCount = 0;
+
+  // Per use, the call sites and distinct methods making it, and the methods
+  // as rows of their own, if kept
+  private IntColumn siteCounts;
+  private IntColumn methodCounts;
+  private IntColumn methodOffsets;
+  private IntColumn methods;
+
+  // Per class, the call sites in the uses of it
+  private IntColumn siteTotals;
+
+  ClassGraph(Memory memory) {
+    this(memory, false);
+  }
+
+  ClassGraph(Memory memory, boolean keepsMethods) {
+    this.memory = memory;
+    this.keepsMethods = keepsMethods;
+    this.edges = new IntColumn(memory);
+  }
+
+  /**
+   * Records that one class uses another, through a single call site.
+   */
+  public void addUse(int user, int used) {
+    addUse(user, used, 0, 1);
+  }
+
+  /**
+   * Records that a method of one class uses another at a number of call
+   * sites. Only allowed until frozen.
+   */
+  public synchronized void addUse(int user, int used, int method, int count) {
+    edges.add(user);
+    edges.add(used);
+    edges.add(method);
+    edges.add(count);
+  }
+
+  public boolean keepsMethods() {
+    return keepsMethods;
+  }
+
+  /**
+   * Builds the rows of a graph of classes with indices below a count from
+   * the uses added, adding up repeats. Must be called before anything is
+   * read from the graph.
+   */
+  public synchronized void freeze(int classCount) {
+    int length = edges.size() / 4;
+    useOffsets = offsets(classCount);
+    for (int i = 0; i < length; i++) {
+      increment(useOffsets, edges.get(4 * i) + 1);
+    }
+    sum(useOffsets, classCount);
+    IntColumn unsorted = new IntColumn(memory);
+    unsorted.ensureCapacity(length);
+    IntColumn next = offsets(classCount);
+    for (int i = 0; i < length; i++) {
+      int user = edges.get(4 * i);
+      unsorted.set(useOffsets.get(user) + next.get(user), i);
+      increment(next, user);
+    }
+
+    // Sort each row by used class, then add up the sites and methods of
+    // each distinct use
+    uses = new IntColumn(memory);
+    siteCounts = new IntColumn(memory);
+    methodCounts = new IntColumn(memory);
+    if (keepsMethods) {
+      methodOffsets = new IntColumn(memory);
+      methods = new IntColumn(memory);
+    }
+    siteTotals = offsets(classCount);
+    long[] row = new long[16];
+    int[] rowMethods = new int[16];
+    for (int i = 0; i < classCount; i++) {
+      int start = useOffsets.get(i);
+      int end = useOffsets.get(i + 1);
+      useOffsets.set(i, useCount);
+      if (end - start > row.length) {
+        row = new long[Math.max(end - start, 2 * row.length)];
+        rowMethods = new int[row.length];
+      }
+      for (int j = start; j < end; j++) {
+        int edge = unsorted.get(j);
+        row[j - start] = (long) edges.get(4 * edge + 1) << 32 | edge;
+      }
+      Arrays.sort(row, 0, end - start);
+      for (int j = 0; j < end - start; ) {
+        int used = (int) (row[j] >>> 32);
+        int sites = 0;
+        int count = 0;
+        for (; j < end - start && (int) (row[j] >>> 32) == used; j++) {
+          int edge = (int) row[j];
+          sites += edges.get(4 * edge + 3);
+          rowMethods[count++] = edges.get(4 * edge + 2);
+        }
+        Arrays.sort(rowMethods, 0, count);
+        if (keepsMethods) {
+          methodOffsets.add(methods.size());
+        }
+        int distinct = 0;
+        for (int k = 0; k < count; k++) {
+          if (k == 0 || rowMethods[k] != rowMethods[k - 1]) {
+            distinct++;
+            if (keepsMethods) {
+              methods.add(rowMethods[k]);
+            }
+          }
+        }
+        uses.add(used);
+        siteCounts.add(sites);
+        methodCounts.add(distinct);
+        siteTotals.set(used, siteTotals.get(used) + sites);
+        useCount++;
+      }
+    }
+    useOffsets.set(classCount, useCount);
+    if (keepsMethods) {
+      methodOffsets.add(methods.size());
+    }
+    edges.free();
+    edges = null;
+    unsorted.free();
+    next.free();
+
+    // The transpose, whose rows come out sorted as the uses are walked in
+    // order of user
+    userOffsets = offsets(classCount);
+    for (int i = 0; i < useCount; i++) {
+      increment(userOffsets, uses.get(i) + 1);
+    }
+    sum(userOffsets, classCount);
+    users = new IntColumn(memory);
+    users.ensureCapacity(useCount);
+    next = offsets(classCount);
+    for (int i = 0; i < classCount; i++) {
+      for (int j = useOffsets.get(i); j < useOffsets.get(i + 1); j++) {
+        int used = uses.get(j);
+        users.set(userOffsets.get(used) + next.get(used), i);
+        increment(next, used);
+      }
+    }
+    next.free();
+  }
+
+  private IntColumn offsets(int classCount) {
+    IntColumn offsets = new IntColumn(memory);
+    offsets.ensureCapacity(classCount + 1);
+    return offsets;
+  }
+
+  private static void increment(IntColumn column, int i) {
+    column.set(i, column.get(i) + 1);
+  }
+
+  private static void sum(IntColumn offsets, int classCount) {
+    for (int i = 0; i < classCount; i++) {
+      offsets.set(i + 1, offsets.get(i + 1) + offsets.get(i));
+    }
+  }
+
+  /**
+   * Returns the number of distinct uses in the graph.
+   */
+  public int getUseCount() {
+    return useCount;
+  }
+
+  /**
+   * Returns the number of classes a class uses.
+   */
+  public int getUseCount(int user) {
+    return useOffsets.get(user + 1) - useOffsets.get(user);
+  }
+
+  /**
+   * Returns the index of one of the classes a class uses, in order of index.
+   */
+  public int getUse(int user, int i) {
+    return uses.get(useOffsets.get(user) + i);
+  }
+
+  /**
+   * Returns the number of classes using a class.
+   */
+  public int getUserCount(int used) {
+    return userOffsets.get(used + 1) - userOffsets.get(used);
+  }
+
+  /**
+   * Returns the index of one of the classes using a class, in order of index.
+   */
+  public int getUser(int used, int i) {
+    return users.get(userOffsets.get(used) + i);
+  }
+
+  /**
+   * Returns the number of call sites making one of the uses of a class.
+   */
+  public int getSiteCount(int user, int i) {
+    return siteCounts.get(useOffsets.get(user) + i);
+  }
+
+  /**
+   * Returns the number of distinct methods making one of the uses of a class.
+   */
+  public int getMethodCount(int user, int i) {
+    return methodCounts.get(useOffsets.get(user) + i);
+  }
+
+  /**
+   * Returns the id of one of the methods making one of the uses of a class,
+   * in order of id. Only if methods are kept.
+   */
+  public int getMethod(int user, int i, int k) {
+    return methods.get(methodOffsets.get(useOffsets.get(user) + i) + k);
+  }
+
+  /**
+   * Returns the number of call sites in the uses of a class.
+   */
+  public int getSiteTotal(int used) {
+    return siteTotals.get(used);
+  }
+
+  public boolean uses(int user, int used) {
+    int low = useOffsets.get(user);
+    int high = useOffsets.get(user + 1) - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int use = uses.get(middle);
+      if (use < used) {
+        low = middle + 1;
+      } else if (use > used) {
+        high = middle - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The classes read, kept as IntColumns in Memory rather than as an object
+ * each. Each class has an index and a row: the id of its name, its kinds as
+ * bit flags and the class it hingles. Its static fields are held in a table
+ * keyed by class and field type, and which classes use which in a
+ * ClassGraph. A Clazz is a view of one row.
+ */
+class ClassModel {
+  static final int SINGLETON = 1;
+  static final int HINGLETON = 2;
+  static final int MINGLETON = 4;
+  static final int FINGLETON = 8;
+  static final int SPECIAL = SINGLETON | HINGLETON | MINGLETON | FINGLETON;
+
+  // Drawn in the first or the second pass
+  static final int DRAWN = 16;
+  static final int DRAWN_AS_USER = 32;
+
+  private final Memory memory;
+  private final SymbolTable symbols;
+  private final ClassGraph graph;
+
+  // The index of each class plus one, by the id of its name
+  private final IntColumn indices;
+
+  // Per class: the id of its name, its kinds, and the id of the class it
+  // hingles plus one
+  private final IntColumn names;
+  private final IntColumn kinds;
+  private final IntColumn hingles;
+  private int size = 0;
+
+  // Static fields, four ints each: the class, the id of the type, the id of
+  // the name, and the previous field of that class and type plus one
+  private final IntColumn fields;
+
+  // The last field of each class and type plus one, by a hash of the two,
+  // at most half full
+  private IntColumn fieldIndex;
+  private int fieldIndexMask;
+  private int fieldKeys = 0;
+
+  /**
+   * Makes an empty model, whose graph keeps the methods making each use if
+   * asked to.
+   */
+  ClassModel(Memory memory, SymbolTable symbols, boolean keepsMethods) {
+    this.memory = memory;
+    this.symbols = symbols;
+    graph = new ClassGraph(memory, keepsMethods);
+    indices = new IntColumn(memory);
+    names = new IntColumn(memory);
+    kinds = new IntColumn(memory);
+    hingles = new IntColumn(memory);
+    fields = new IntColumn(memory);
+    fieldIndex = newFieldIndex(memory.getChunkSize());
+  }
+
+  public SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  public ClassGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Returns the index of the class with the id of a name, adding it the
+   * first time it is asked for. Safe to call from several threads at once.
+   */
+  public synchronized int getOrCreate(int nameId) {
+    indices.ensureCapacity(nameId + 1);
+    int index = indices.get(nameId) - 1;
+    if (index < 0) {
+      index = size++;
+      names.add(nameId);
+      kinds.add(0);
+      hingles.add(0);
+      indices.set(nameId, index + 1);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the class with the id of a name, or -1. Only used
+   * once every class has been read.
+   */
+  public int find(int nameId) {
+    if (nameId < 0 || nameId >= indices.getCapacity()) {
+      return -1;
+    }
+    return indices.get(nameId) - 1;
+  }
+
+  /**
+   * Returns the number of classes. Only used once every class has been
+   * read.
+   */
+  public int size() {
+    return size;
+  }
+
+  public Clazz get(int index) {
+    return new Clazz(this, index);
+  }
+
+  public int getNameId(int index) {
+    return names.get(index);
+  }
+
+  public int getKinds(int index) {
+    return kinds.get(index);
+  }
+
+  /**
+   * Sets kinds of a class. A class is only changed by one thread at once.
+   */
+  public void addKinds(int index, int kinds) {
+    this.kinds.set(index, this.kinds.get(index) | kinds);
+  }
+
+  /**
+   * Returns the id of the class a class hingles, or -1.
+   */
+  public int getClassIHingle(int index) {
+    return hingles.get(index) - 1;
+  }
+
+  public void setClassIHingle(int index, int type) {
+    hingles.set(index, type + 1);
+  }
+
+  public synchronized void addStaticField(int index, int nameId, int type) {
+    int slot = fieldSlot(index, type);
+    int field = fields.size() / 4;
+    fields.add(index);
+    fields.add(type);
+    fields.add(nameId);
+    fields.add(fieldIndex.get(slot));
+    if (fieldIndex.get(slot) == 0 && 2 * ++fieldKeys > fieldIndexMask + 1) {
+      rehashFields();
+      slot = fieldSlot(index, type);
+    }
+    fieldIndex.set(slot, field + 1);
+  }
+
+  public synchronized boolean hasStaticField(int index, int type) {
+    return fieldIndex.get(fieldSlot(index, type)) != 0;
+  }
+
+  /**
+   * Returns the names of the static fields of a class which hold a type, in
+   * the order they were added.
+   */
+  public synchronized List<String> getStaticFields(int index, int type) {
+    List<String> names = new ArrayList<String>();
+    for (int field = fieldIndex.get(fieldSlot(index, type)) - 1; field >= 0;
+        field = fields.get(4 * field + 3) - 1) {
+      names.add(symbols.name(fields.get(4 * field + 2)));
+    }
+    Collections.reverse(names);
+    return names;
+  }
+
+  /**
+   * Returns the slot holding the last field of a class and type, or the
+   * empty one it would go in.
+   */
+  private int fieldSlot(int index, int type) {
+    int hash = (index * 0x9e3779b9) ^ (type * 0x85ebca6b);
+    for (int i = (hash ^ hash >>> 16) & fieldIndexMask; ;
+        i = (i + 1) & fieldIndexMask) {
+      int field = fieldIndex.get(i) - 1;
+      if (field < 0 || fields.get(4 * field) == index
+          && fields.get(4 * field + 1) == type) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Doubles the field index, refilling it with the last field of each class
+   * and type.
+   */
+  private void rehashFields() {
+    IntColumn old = fieldIndex;
+    int oldCapacity = fieldIndexMask + 1;
+    fieldIndex = newFieldIndex(2 * oldCapacity);
+    for (int i = 0; i < oldCapacity; i++) {
+      int field = old.get(i) - 1;
+      if (field >= 0) {
+        fieldIndex.set(fieldSlot(fields.get(4 * field),
+            fields.get(4 * field + 1)), field + 1);
+      }
+    }
+  }
+
+  private IntColumn newFieldIndex(int capacity) {
+    IntColumn index = new IntColumn(memory);
+    index.ensureCapacity(capacity);
+    fieldIndexMask = capacity - 1;
+    return index;
+  }
+}
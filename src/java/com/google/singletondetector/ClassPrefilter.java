@@ -0,0 +1,153 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Decides how much of a class has to be parsed, from its constant pool and
+ * the access flags of its members alone, without decoding any method body.
+ * A class can only be special through its static fields and public static
+ * methods, and can only use another class through a method or field
+ * reference in its constant pool, so most classes need far less than a full
+ * parse.
+ */
+class ClassPrefilter {
+  // Nothing but the class's name is needed
+  public static final int NAME_ONLY = 0;
+
+  // Its fields and methods are needed, but not their code
+  public static final int MEMBERS = 1;
+
+  // The whole class is needed
+  public static final int FULL = 2;
+
+  // Constant pool tags
+  private static final int FIELDREF = 9;
+  private static final int METHODREF = 10;
+  private static final int INTERFACE_METHODREF = 11;
+
+  // Reused by each parser thread to read strings out of constant pools,
+  // grown to the longest string seen
+  private static final ThreadLocal<char[]> buffers =
+      new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+          return new char[256];
+        }
+      };
+
+  private ClassPrefilter() {
+  }
+
+  /**
+   * Returns NAME_ONLY, MEMBERS or FULL. Parsing a class to the level returned
+   * produces exactly the same callbacks on the detector as a full parse.
+   */
+  public static int level(ClassReader cr) {
+    char[] buffer = buffers.get();
+    if (buffer.length < cr.getMaxStringLength()) {
+      buffer = new char[cr.getMaxStringLength()];
+      buffers.set(buffer);
+    }
+    if (hasReferences(cr, buffer)) {
+      return FULL;
+    }
+    return hasSpecialMembers(cr, buffer) ? MEMBERS : NAME_ONLY;
+  }
+
+  /**
+   * Returns whether the class refers to a static field or method of another
+   * class which could make an edge: a field of object type, or a method
+   * returning an object. The constant pool cannot tell static references
+   * from others, so this errs on the side of a full parse.
+   */
+  private static boolean hasReferences(ClassReader cr, char[] buffer) {
+    String className = cr.getClassName();
+    for (int i = 1; i < cr.getItemCount(); i++) {
+      int item = cr.getItem(i);
+      if (item == 0) {
+        // The second slot of a long or double
+        continue;
+      }
+      int tag = cr.readByte(item - 1);
+      if (tag != FIELDREF && tag != METHODREF && tag != INTERFACE_METHODREF) {
+        continue;
+      }
+      int nameAndType = cr.getItem(cr.readUnsignedShort(item + 2));
+      String desc = cr.readUTF8(nameAndType + 2, buffer);
+      boolean objectType = tag == FIELDREF ? desc.charAt(0) == 'L'
+          : desc.charAt(desc.lastIndexOf(')') + 1) == 'L';
+      if (objectType && !cr.readClass(item, buffer).equals(className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the class has a member which could make it special: a
+   * public static field of object or array type, a private static non-final
+   * field of object type or a public static method returning an object.
+   */
+  private static boolean hasSpecialMembers(ClassReader cr, char[] buffer) {
+    // Skip the access flags, this and super class and interfaces
+    int offset = cr.header + 6;
+    offset += 2 + 2 * cr.readUnsignedShort(offset);
+
+    int fields = cr.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < fields; i++) {
+      int access = cr.readUnsignedShort(offset);
+      if ((access & Opcodes.ACC_STATIC) != 0) {
+        char type = cr.readUTF8(offset + 4, buffer).charAt(0);
+        if ((access & Opcodes.ACC_PUBLIC) != 0 && (type == 'L' || type == '[')) {
+          return true;
+        }
+        if ((access & Opcodes.ACC_PRIVATE) != 0
+            && (access & Opcodes.ACC_FINAL) == 0 && type == 'L') {
+          return true;
+        }
+      }
+      offset = skipAttributes(cr, offset + 6);
+    }
+
+    int methods = cr.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < methods; i++) {
+      int access = cr.readUnsignedShort(offset);
+      if ((access & Opcodes.ACC_STATIC) != 0
+          && (access & Opcodes.ACC_PUBLIC) != 0) {
+        String desc = cr.readUTF8(offset + 4, buffer);
+        if (desc.charAt(desc.lastIndexOf(')') + 1) == 'L') {
+          return true;
+        }
+      }
+      offset = skipAttributes(cr, offset + 6);
+    }
+    return false;
+  }
+
+  private static int skipAttributes(ClassReader cr, int offset) {
+    int attributes = cr.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < attributes; i++) {
+      offset += 6 + cr.readInt(offset + 2);
+    }
+    return offset;
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.io.Closeable;
+
+/**
+ * A stream of classes to be analysed. Each call to accept() produces the
+ * classes afresh, handing them to the visitor one at a time, so a class's
+ * bytes can be released as soon as the visitor has returned. The detector
+ * closes a source once it has finished reading it.
+ */
+public interface ClassSource extends Closeable {
+
+  void accept(ClassSourceVisitor visitor);
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Remembers a content hash of the copy of each class chosen for analysis.
+ * A class found again with the same bytes, as happens with shaded or
+ * repackaged dependencies, is a duplicate and is not parsed again. One found
+ * with different bytes is a conflict: the first copy is still the one
+ * analysed, but the class is recorded so that it can be reported. Hashes
+ * are kept in Memory, by the SymbolTable id of the class name.
+ */
+class ClassTable {
+  private final SymbolTable symbols;
+
+  // Hash of the chosen copy of each class, as two ints, by the id of its
+  // internal name, and whether one has been chosen: 1 if so, 2 once it has
+  // been read again
+  private final IntColumn highHashes;
+  private final IntColumn lowHashes;
+  private final IntColumn chosen;
+
+  // Hashes of every copy of the classes found in more than one version, by
+  // the id of their internal name
+  private final Map<Integer, Set<Long>> conflicts =
+      new HashMap<Integer, Set<Long>>();
+
+  private int duplicates = 0;
+
+  ClassTable(SymbolTable symbols, Memory memory) {
+    this.symbols = symbols;
+    highHashes = new IntColumn(memory);
+    lowHashes = new IntColumn(memory);
+    chosen = new IntColumn(memory);
+  }
+
+  /**
+   * Records a copy of a class, returning true if it is the first one seen
+   * and so should be analysed.
+   */
+  public boolean add(String name, byte[] bytes) {
+    long hash = hash(bytes);
+    int id = symbols.intern(name);
+    if (id >= chosen.getCapacity()) {
+      highHashes.ensureCapacity(id + 1);
+      lowHashes.ensureCapacity(id + 1);
+      chosen.ensureCapacity(id + 1);
+    }
+    if (chosen.get(id) == 0) {
+      highHashes.set(id, (int) (hash >>> 32));
+      lowHashes.set(id, (int) hash);
+      chosen.set(id, 1);
+      return true;
+    }
+    long chosenHash =
+        (long) highHashes.get(id) << 32 | (lowHashes.get(id) & 0xffffffffL);
+    if (chosenHash != hash) {
+      Set<Long> copies = conflicts.get(id);
+      if (copies == null) {
+        copies = new HashSet<Long>();
+        copies.add(chosenHash);
+        conflicts.put(id, copies);
+      }
+      copies.add(hash);
+    }
+    duplicates++;
+    return false;
+  }
+
+  /**
+   * Records a copy of a class met again in a later pass over the source,
+   * returning true if it is the copy chosen by add() and has not been met
+   * again before. The chosen copy is told by its contents, as a source read
+   * on several threads may not produce the classes in the same order twice.
+   */
+  public boolean addAgain(String name, byte[] bytes) {
+    int id = symbols.find(name);
+    if (id < 0 || id >= chosen.getCapacity() || chosen.get(id) != 1) {
+      return false;
+    }
+    long hash = hash(bytes);
+    if (highHashes.get(id) != (int) (hash >>> 32)
+        || lowHashes.get(id) != (int) hash) {
+      return false;
+    }
+    chosen.set(id, 2);
+    return true;
+  }
+
+  /**
+   * Returns the number of copies which were skipped, whether identical to
+   * the chosen copy or not.
+   */
+  public int getDuplicates() {
+    return duplicates;
+  }
+
+  /**
+   * Returns the classes found with differing contents, in name order.
+   */
+  public SortedSet<String> getConflicts() {
+    SortedSet<String> names = new TreeSet<String>();
+    for (int id : conflicts.keySet()) {
+      names.add(symbols.name(id));
+    }
+    return names;
+  }
+
+  /**
+   * A 64 bit hash of a whole class file, taken eight bytes at a time.
+   */
+  static long hash(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    long hash = 0xcbf29ce484222325L ^ bytes.length;
+    int i = 0;
+    for (; i + 8 <= bytes.length; i += 8) {
+      hash = (hash ^ buffer.getLong(i)) * 0x9e3779b97f4a7c15L;
+      hash ^= hash >>> 29;
+    }
+    for (; i < bytes.length; i++) {
+      hash = (hash ^ bytes[i]) * 0x100000001b3L;
+    }
+    return hash ^ (hash >>> 32);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.ClasspathRoot;
+import com.google.singletondetector.classpath.PackageFilter;
+import com.google.singletondetector.classpath.ShadowedClassFileVisitor;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+
+/**
+ * Streams every class under a ClasspathRoot whose name starts with the given
+ * prefix and whose package passes a PackageFilter. Inner classes and enums
+ * are skipped. Names are checked before a class is read, so excluded classes
+ * are never inflated and excluded directories never listed. Nothing is cached
+ * between calls to accept(), so each pass re-reads the classes from the root.
+ * The first pass also hands on the copies of a class that a later root
+ * holds, after the copy from the earliest, so that they can be counted as
+ * duplicates or reported as conflicts.
+ */
+public class ClasspathClassSource implements ClassSource {
+  // The root all classes are read from
+  private final ClasspathRoot root;
+
+  // The common prefix for all classes
+  private final String prefix;
+
+  // The packages to read classes from
+  private final PackageFilter filter;
+
+  // Whether to list the classes found, which is done on the first pass only
+  private boolean verbose;
+
+  // Whether to hand on the copies of a class shadowed by an earlier root,
+  // which is done on the first pass only, as only it looks for duplicates
+  private boolean firstPass = true;
+
+  public ClasspathClassSource(ClasspathRoot root, String prefix,
+      boolean verbose) {
+    this(root, prefix, PackageFilter.ALL, verbose);
+  }
+
+  public ClasspathClassSource(ClasspathRoot root, String prefix,
+      PackageFilter filter, boolean verbose) {
+    this.root = root;
+    this.prefix = prefix;
+    this.filter = filter;
+    this.verbose = verbose;
+  }
+
+  public void accept(ClassSourceVisitor visitor) {
+    try {
+      root.accept(firstPass
+          ? new ShadowedClassFilter(visitor) : new ClassFilter(visitor));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    verbose = false;
+    firstPass = false;
+  }
+
+  /**
+   * Hands the classes wanted on to a ClassSourceVisitor.
+   */
+  private class ClassFilter implements ClassFileVisitor {
+    final ClassSourceVisitor visitor;
+
+    ClassFilter(ClassSourceVisitor visitor) {
+      this.visitor = visitor;
+    }
+
+    public boolean wantsPackage(String packagePath) {
+      // Either may be the longer, as the prefix can end mid-package
+      int length = Math.min(packagePath.length(), prefix.length());
+      return packagePath.regionMatches(0, prefix, 0, length)
+          && filter.acceptsPackage(packagePath);
+    }
+
+    public boolean wantsClassFile(String resourceName) {
+      return !resourceName.contains("$")
+          && !resourceName.endsWith("module-info.class")
+          && resourceName.startsWith(prefix)
+          && filter.acceptsClass(resourceName);
+    }
+
+    public void visitClassFile(String resourceName, byte[] bytes) {
+      ClassReader cr = new ClassReader(bytes);
+      if (isValid(cr, prefix)) {
+        if (verbose) {
+          System.out.println("Found: "
+              + cr.getClassName().replace("/", "."));
+        }
+        visitor.visitClass(cr, bytes);
+      }
+    }
+  }
+
+  /**
+   * Also hands on the copies shadowed by an earlier one, after it, so that
+   * the visitor can tell duplicates from conflicting copies.
+   */
+  private class ShadowedClassFilter extends ClassFilter
+      implements ShadowedClassFileVisitor {
+    ShadowedClassFilter(ClassSourceVisitor visitor) {
+      super(visitor);
+    }
+
+    public void visitShadowedClassFile(String resourceName, byte[] bytes) {
+      ClassReader cr = new ClassReader(bytes);
+      if (isValid(cr, prefix)) {
+        visitor.visitClass(cr, bytes);
+      }
+    }
+  }
+
+  /**
+   * Closes the root, releasing any files it holds open.
+   */
+  public void close() throws IOException {
+    root.close();
+  }
+
+  /**
+   * Returns whether a class should be analysed: enums and module
+   * descriptors are left out, as are classes outside the prefix.
+   */
+  public static boolean isValid(ClassReader cr, String prefix) {
+    return !"java/lang/Enum".equals(cr.getSuperName())
+        && (cr.getAccess() & Opcodes.ACC_MODULE) == 0
+        && cr.getClassName().startsWith(prefix);
+  }
+}
@@ -15,68 +15,76 @@
  */
 package com.google.singletondetector;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 /**
  * Represents a single class from the input set. Stores information determining
  * whether this class is a special class (i.e. Singleton, Hingleton, etc.),
- * relevant information (classIHingle for Hingletons), and a set of classes it
- * uses, as well as information about the actual class read by ASM.
+ * relevant information (classIHingle for Hingletons), and its place in the
+ * ClassGraph of which classes it uses, as well as information about the
+ * actual class read by ASM.
+ * A Clazz is a view of one row of the detector's ClassModel, which holds the
+ * data, and may be made again whenever it is needed. Class names are held as
+ * SymbolTable ids. Classes are read concurrently, but each by one thread, so
+ * a class is only changed by one thread at once.
  * 
  * @author David Rubel
  */
 public class Clazz {
-  // The name of the class, stored as the full package name minus a prefix
-  private final String name;
-  
-  // If this class is a hingleton, this is the name of the class it "hingles"
-  private String classIHingle = null;
-  
-  // Flags storing the type of class
-  private boolean isSingleton = false;
-  private boolean isHingleton = false;
-  private boolean isMingleton = false;
-  private boolean isFingleton = false;
-  
-  // Map of all of the static fields inside the class this object represents
-  private final HashMap<String, String> staticFields =
-      new HashMap<String, String>();
-
-  // A set of classes which are referenced by this class
-  private Set<Clazz> classesIUse = new HashSet<Clazz>();
-  
-  // A set of classes which reference this class
-  private Set<Clazz> classesUsingMe = new HashSet<Clazz>();
+  // The model holding the class, and the index of its row
+  private final ClassModel model;
+  private final int index;
 
-  // 0 if not drawn, 1 or 2 if drawn in 1st/2nd pass
-  private int drawn = 0;
+  Clazz(ClassModel model, int index) {
+    this.model = model;
+    this.index = index;
+  }
 
-  public Clazz(String name) {
-    this.name = name;
+  /**
+   * Returns the id of the name of the class.
+   */
+  public int getId() {
+    return model.getNameId(index);
   }
 
+  /**
+   * Returns the name of the class, as the full package name minus a prefix.
+   */
   public String getName() {
-    return name;
+    return model.getSymbols().name(getId());
+  }
+
+  public int getIndex() {
+    return index;
   }
 
-  public void addStaticField(String fieldName, String fieldType) {
-    staticFields.put(fieldName, fieldType);
+  public void addStaticField(String fieldName, int fieldType) {
+    model.addStaticField(index, model.getSymbols().intern(fieldName),
+        fieldType);
+  }
 
+  /**
+   * Returns the names of the static fields added which hold a type, given by
+   * its id.
+   */
+  public List<String> getStaticFields(int fieldType) {
+    return model.getStaticFields(index, fieldType);
   }
 
   public void visitStaticMethod(String methodName, String params,
-      String returnType, Flags flags) {
-    boolean returnsSelf = returnType.equals(name);
-
-    if (!flags.ignoreSingletons() && returnsSelf && staticFields.values().contains(name)) {
-      isSingleton = true;
-    } else if (!flags.ignoreHingletons() && staticFields.values().contains(returnType)) {
-      isHingleton = true;
-      classIHingle = returnType;
+      int returnType, Flags flags) {
+    int id = getId();
+    boolean returnsSelf = returnType == id;
+
+    if (!flags.ignoreSingletons() && returnsSelf
+        && model.hasStaticField(index, id)) {
+      model.addKinds(index, ClassModel.SINGLETON);
+    } else if (!flags.ignoreHingletons()
+        && model.hasStaticField(index, returnType)) {
+      model.addKinds(index, ClassModel.HINGLETON);
+      model.setClassIHingle(index, returnType);
     } else if (!flags.ignoreMingletons() && params.equals("")) {
-      isMingleton = true;
+      model.addKinds(index, ClassModel.MINGLETON);
     }
   }
 
@@ -88,23 +96,38 @@ public class Clazz {
 
     if (!flags.ignoreFingletons() && fieldType.startsWith("L")
         && !fieldType.startsWith("Ljava/")) {
-      isFingleton = true;
+      model.addKinds(index, ClassModel.FINGLETON);
     }
   }
   
   public void setIsDrawn(int threshold) {
-    if (isSpecial() || !classesIUse.isEmpty()) {
-      if (classesUsingMe.size() >= threshold) {
-        drawn = 1;
+    setIsDrawn(threshold, false);
+  }
+
+  /**
+   * Draws this class if it is special or uses another class, and enough
+   * classes use it, or if asked to, enough call sites.
+   */
+  public void setIsDrawn(int threshold, boolean countsCallSites) {
+    ClassGraph graph = model.getGraph();
+    if (isSpecial() || graph.getUseCount(index) > 0) {
+      int users = countsCallSites ? graph.getSiteTotal(index)
+          : graph.getUserCount(index);
+      if (users >= threshold) {
+        model.addKinds(index, ClassModel.DRAWN);
       }
     }
   }
   
+  /**
+   * Draws this class if it uses a class drawn in the first pass.
+   */
   public void updateIsDrawn() {
-    if (drawn == 0) {
-      for (Clazz cl : classesIUse) {
-        if (cl.drawn == 1) {
-          drawn = 2;
+    ClassGraph graph = model.getGraph();
+    if (!isDrawn()) {
+      for (int i = 0; i < graph.getUseCount(index); i++) {
+        if (is(graph.getUse(index, i), ClassModel.DRAWN)) {
+          model.addKinds(index, ClassModel.DRAWN_AS_USER);
           break;
         }
       }
@@ -112,59 +135,62 @@ public class Clazz {
   }
   
   public boolean isDrawn() {
-    return drawn != 0;
+    return is(index, ClassModel.DRAWN | ClassModel.DRAWN_AS_USER);
   }
 
   public boolean isSpecial() {
-    return isSingleton || isHingleton || isMingleton || isFingleton;
+    return is(index, ClassModel.SPECIAL);
   }
 
   public boolean isSingleton() {
-    return isSingleton;
+    return is(index, ClassModel.SINGLETON);
   }
 
   public boolean isHingleton() {
-    return isHingleton;
+    return is(index, ClassModel.HINGLETON);
   }
 
   public boolean isMingleton() {
-    return isMingleton;
+    return is(index, ClassModel.MINGLETON);
   }
 
   public boolean isFingleton() {
-    return isFingleton;
+    return is(index, ClassModel.FINGLETON);
   }
 
-  public void addClassIUse(Clazz clazz) {
-    classesIUse.add(clazz);
-    clazz.classesUsingMe.add(this);
+  private boolean is(int index, int kinds) {
+    return (model.getKinds(index) & kinds) != 0;
   }
 
   public boolean uses(Clazz clazz) {
-    return classesIUse.contains(clazz);
+    return model.getGraph().uses(index, clazz.index);
   }
 
-  public Set<Clazz> getClassesIUse() {
-    return classesIUse;
+  public boolean doIHingle(int classId) {
+    int classIHingle = getClassIHingle();
+    return classIHingle >= 0 && classId == classIHingle;
   }
 
-  public boolean doIHingle(String className) {
-    boolean ret = false;
-    if (classIHingle != null) {
-      ret = className.equals(classIHingle);
-    }
-    return ret;
+  /**
+   * Returns the id of the class this hingleton hingles, or -1.
+   */
+  public int getClassIHingle() {
+    return model.getClassIHingle(index);
   }
 
-  public String getClassIHingle() {
-    return classIHingle;
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Clazz && ((Clazz) o).model == model
+        && ((Clazz) o).index == index;
   }
 
   @Override
-  public String toString() {
-    return name;
+  public int hashCode() {
+    return index;
   }
 
-
-
+  @Override
+  public String toString() {
+    return getName();
+  }
 }
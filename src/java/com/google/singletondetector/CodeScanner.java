@@ -0,0 +1,283 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.Arrays;
+
+/**
+ * Finds the static calls and static field accesses of a class by walking the
+ * Code attributes of its methods directly over the class bytes, instead of
+ * having ASM decode every instruction into Strings. Only INVOKESTATIC,
+ * GETSTATIC and PUTSTATIC are looked at, and the constant pool entry each one
+ * refers to is resolved to interned ids once per class, so instructions are
+ * skipped without allocating anything.
+ *
+ * A class is scanned in two steps: scan() walks all of its code and keeps the
+ * sites found, counted per method, then record() adds them to the class's
+ * ClassContext. Methods are told apart as ClassContext.startMethod() does,
+ * by their place in the class, or by name if the scanner names them. A scanner
+ * keeps state between the two, so each thread needs its own.
+ * Should scan() meet bytes it cannot make sense of, it returns false and
+ * nothing is kept, leaving the class to be read with ASM instead, which
+ * remains the reference implementation (see SingletonUsageMethodVisitor).
+ */
+class CodeScanner {
+  private static final int GETSTATIC = 0xb2;
+  private static final int PUTSTATIC = 0xb3;
+  private static final int INVOKESTATIC = 0xb8;
+  private static final int TABLESWITCH = 0xaa;
+  private static final int LOOKUPSWITCH = 0xab;
+  private static final int WIDE = 0xc4;
+  private static final int IINC = 0x84;
+
+  // The length of each instruction, or 0 for the variable length ones and -1
+  // for opcodes which do not exist
+  private static final byte[] LENGTHS = new byte[256];
+
+  static {
+    Arrays.fill(LENGTHS, (byte) -1);
+    Arrays.fill(LENGTHS, 0x00, 0xca, (byte) 1);
+    set(2, 0x10, 0x12, 0xbc, 0xa9);
+    set(2, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a);
+    set(3, 0x11, 0x13, 0x14, IINC, 0xbb, 0xbd, 0xc0, 0xc1, 0xc6, 0xc7);
+    for (int opcode = 0x99; opcode <= 0xa8; opcode++) {
+      set(3, opcode);
+    }
+    for (int opcode = GETSTATIC; opcode <= INVOKESTATIC; opcode++) {
+      set(3, opcode);
+    }
+    set(4, 0xc5);
+    set(5, 0xb9, 0xba, 0xc8, 0xc9);
+    set(0, TABLESWITCH, LOOKUPSWITCH, WIDE);
+  }
+
+  private static void set(int length, int... opcodes) {
+    for (int opcode : opcodes) {
+      LENGTHS[opcode] = (byte) length;
+    }
+  }
+
+  private final SymbolTable symbols;
+
+  private ClassReader cr;
+  private char[] buffer = new char[0];
+
+  // Per constant pool entry: 0 if not resolved yet, -1 if its accesses make
+  // no site, or else the owner's id plus one
+  private int[] owners = new int[0];
+  private int[] descs = new int[0];
+
+  // Per constant pool entry, the last method scanned which uses it, and the
+  // offset of its site in that method, as each method only needs a site once
+  private int[] scanned = new int[0];
+  private int[] offsets = new int[0];
+  private int scans = 0;
+
+  // Whether methods are named rather than numbered
+  private final boolean namesMethods;
+
+  // The method being scanned
+  private int method;
+
+  // Owner, descriptor id (or -1), method and count found by the last scan
+  private int[] sites = new int[64];
+  private int length = 0;
+
+  public CodeScanner(SymbolTable symbols) {
+    this(symbols, false);
+  }
+
+  public CodeScanner(SymbolTable symbols, boolean namesMethods) {
+    this.symbols = symbols;
+    this.namesMethods = namesMethods;
+  }
+
+  /**
+   * Walks the code of every method of a class, returning false if any of it
+   * could not be decoded.
+   */
+  public boolean scan(ClassReader cr) {
+    this.cr = cr;
+    length = 0;
+    int items = cr.getItemCount();
+    if (owners.length < items) {
+      owners = new int[items];
+      descs = new int[items];
+      scanned = new int[items];
+      offsets = new int[items];
+    } else {
+      Arrays.fill(owners, 0, items, 0);
+    }
+    if (buffer.length < cr.getMaxStringLength()) {
+      buffer = new char[cr.getMaxStringLength()];
+    }
+
+    try {
+      // Skip the access flags, this and super class and interfaces
+      int offset = cr.header + 6;
+      offset += 2 + 2 * cr.readUnsignedShort(offset);
+      offset = skipMembers(offset);
+
+      int methods = cr.readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < methods; i++) {
+        int attributes = cr.readUnsignedShort(offset + 6);
+        method = namesMethods ? -1 - offset : i;
+        scans++;
+        offset += 8;
+        for (int j = 0; j < attributes; j++) {
+          int attributeLength = cr.readInt(offset + 2);
+          if ("Code".equals(cr.readUTF8(offset, buffer))) {
+            scanCode(offset + 6);
+          }
+          offset += 6 + attributeLength;
+        }
+      }
+      return true;
+    } catch (RuntimeException e) {
+      // Malformed or truncated code
+      length = 0;
+      return false;
+    } finally {
+      this.cr = null;
+    }
+  }
+
+  /**
+   * Adds the sites found by the last scan to a class.
+   */
+  public void record(ClassContext context) {
+    for (int i = 0; i < length; i += 4) {
+      context.setMethod(sites[i + 2]);
+      if (sites[i + 1] < 0) {
+        context.addFieldInstruction(sites[i], sites[i + 3]);
+      } else {
+        context.addInvokeStatic(sites[i], sites[i + 1], sites[i + 3]);
+      }
+    }
+    length = 0;
+  }
+
+  private int skipMembers(int offset) {
+    int members = cr.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < members; i++) {
+      int attributes = cr.readUnsignedShort(offset + 6);
+      offset += 8;
+      for (int j = 0; j < attributes; j++) {
+        offset += 6 + cr.readInt(offset + 2);
+      }
+    }
+    return offset;
+  }
+
+  private void scanCode(int offset) {
+    // Skip max_stack and max_locals
+    int start = offset + 8;
+    int end = start + cr.readInt(offset + 4);
+    int pc = start;
+    while (pc < end) {
+      int opcode = cr.readByte(pc);
+      int length = LENGTHS[opcode];
+      if (opcode == GETSTATIC || opcode == PUTSTATIC
+          || opcode == INVOKESTATIC) {
+        site(opcode, cr.readUnsignedShort(pc + 1));
+      } else if (length == 0) {
+        length = variableLength(opcode, pc - start, pc);
+      } else if (length < 0) {
+        throw new IllegalArgumentException("Unknown opcode " + opcode);
+      }
+      pc += length;
+    }
+    if (pc != end) {
+      throw new IllegalArgumentException("Truncated instruction");
+    }
+  }
+
+  private int variableLength(int opcode, int codeOffset, int pc) {
+    if (opcode == WIDE) {
+      return cr.readByte(pc + 1) == IINC ? 6 : 4;
+    }
+    // Operands are aligned to four bytes from the start of the code
+    int padding = 3 - (codeOffset & 3);
+    int operands = pc + 1 + padding;
+    if (opcode == TABLESWITCH) {
+      int low = cr.readInt(operands + 4);
+      int high = cr.readInt(operands + 8);
+      return 1 + padding + 12 + 4 * (high - low + 1);
+    }
+    return 1 + padding + 8 + 8 * cr.readInt(operands + 4);
+  }
+
+  private void site(int opcode, int index) {
+    if (owners[index] == 0) {
+      resolve(opcode, index);
+    }
+    if (owners[index] < 0) {
+      return;
+    } else if (scanned[index] == scans) {
+      sites[offsets[index] + 3]++;
+      return;
+    }
+    if (method < 0) {
+      method = nameMethod(-1 - method);
+    }
+    scanned[index] = scans;
+    offsets[index] = length;
+    if (length + 4 > sites.length) {
+      sites = Arrays.copyOf(sites, sites.length * 2);
+    }
+    sites[length++] = owners[index] - 1;
+    sites[length++] = descs[index];
+    sites[length++] = method;
+    sites[length++] = 1;
+  }
+
+  /**
+   * Returns the id of the name and descriptor of the method at an offset,
+   * which is only looked up once the method is found to make a site.
+   */
+  private int nameMethod(int offset) {
+    return symbols.intern(cr.readUTF8(offset + 2, buffer)
+        + cr.readUTF8(offset + 4, buffer));
+  }
+
+  /**
+   * Resolves a method or field reference, with the same tests as
+   * SingletonUsageMethodVisitor and SingletonDetector.invokeStatic().
+   */
+  private void resolve(int opcode, int index) {
+    int item = cr.getItem(index);
+    int nameAndType = cr.getItem(cr.readUnsignedShort(item + 2));
+    String desc = cr.readUTF8(nameAndType + 2, buffer);
+    if (opcode == INVOKESTATIC) {
+      if (desc.charAt(desc.lastIndexOf(')') + 1) != 'L') {
+        owners[index] = -1;
+        return;
+      }
+      descs[index] = symbols.intern(desc);
+    } else {
+      if (desc.charAt(0) != 'L') {
+        owners[index] = -1;
+        return;
+      }
+      descs[index] = -1;
+    }
+    owners[index] = symbols.intern(cr.readClass(item, buffer)) + 1;
+  }
+}
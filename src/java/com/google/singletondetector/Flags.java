@@ -15,6 +15,9 @@
  */
 package com.google.singletondetector;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Simple class which stores flags for a SingletonDetector. Each boolean can be
  * set or read.
@@ -31,6 +34,22 @@ public class Flags {
   private boolean ignoreFingletons = false;
   private boolean ignoreOthers = false;
   private int threshold = -1;
+  private boolean countsCallSites = false;
+  private boolean recordsEdgeMethods = false;
+  private List<String> includedModules = new ArrayList<String>();
+  private List<String> excludedModules = new ArrayList<String>();
+  private int maxOpenArchives = -1;
+  private int release = -1;
+  private boolean useAsmForCode = false;
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private boolean useVirtualThreads = false;
+  private int readers = Runtime.getRuntime().availableProcessors();
+  private int queueCapacity = 256;
+  private boolean useOffHeapModel = false;
+  private boolean rereadsClasses = false;
+  private int maxClassBytes = 0;
+  private List<String> includedPackages = new ArrayList<String>();
+  private List<String> excludedPackages = new ArrayList<String>();
 
   public boolean isVerbose() {
     return verbose;
@@ -103,4 +122,132 @@ public class Flags {
   public void setThreshold(int threshold) {
     this.threshold = threshold;
   }
+
+  public boolean countsCallSites() {
+    return countsCallSites;
+  }
+
+  public void setCountsCallSites(boolean countsCallSites) {
+    this.countsCallSites = countsCallSites;
+  }
+
+  public boolean recordsEdgeMethods() {
+    return recordsEdgeMethods;
+  }
+
+  public void setRecordsEdgeMethods(boolean recordsEdgeMethods) {
+    this.recordsEdgeMethods = recordsEdgeMethods;
+  }
+
+  public List<String> getIncludedModules() {
+    return includedModules;
+  }
+
+  public void addIncludedModule(String module) {
+    includedModules.add(module);
+  }
+
+  public List<String> getExcludedModules() {
+    return excludedModules;
+  }
+
+  public void addExcludedModule(String module) {
+    excludedModules.add(module);
+  }
+
+  public List<String> getIncludedPackages() {
+    return includedPackages;
+  }
+
+  public void addIncludedPackage(String pattern) {
+    includedPackages.add(pattern);
+  }
+
+  public List<String> getExcludedPackages() {
+    return excludedPackages;
+  }
+
+  public void addExcludedPackage(String pattern) {
+    excludedPackages.add(pattern);
+  }
+
+  public int getRelease() {
+    return release;
+  }
+
+  public void setRelease(int release) {
+    this.release = release;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  public int getReaders() {
+    return readers;
+  }
+
+  public void setReaders(int readers) {
+    this.readers = readers;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public boolean useVirtualThreads() {
+    return useVirtualThreads;
+  }
+
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+
+  public boolean useOffHeapModel() {
+    return useOffHeapModel;
+  }
+
+  public void setUseOffHeapModel(boolean useOffHeapModel) {
+    this.useOffHeapModel = useOffHeapModel;
+  }
+
+  public boolean rereadsClasses() {
+    return rereadsClasses;
+  }
+
+  public void setRereadsClasses(boolean rereadsClasses) {
+    this.rereadsClasses = rereadsClasses;
+  }
+
+  public int getMaxClassBytes() {
+    return maxClassBytes;
+  }
+
+  public void setMaxClassBytes(int maxClassBytes) {
+    this.maxClassBytes = maxClassBytes;
+  }
+
+  public boolean useAsmForCode() {
+    return useAsmForCode;
+  }
+
+  public void setUseAsmForCode(boolean useAsmForCode) {
+    this.useAsmForCode = useAsmForCode;
+  }
+
+  public int getMaxOpenArchives() {
+    return maxOpenArchives;
+  }
+
+  public void setMaxOpenArchives(int maxOpenArchives) {
+    this.maxOpenArchives = maxOpenArchives;
+  }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A SymbolTable holding its names as Strings on the heap. Names are looked
+ * up without locking.
+ */
+class HeapSymbolTable implements SymbolTable {
+  private final ConcurrentMap<String, Integer> ids =
+      new ConcurrentHashMap<String, Integer>();
+
+  // Names by id, replaced by a larger copy as it fills
+  private volatile String[] names = new String[1024];
+  private int size = 0;
+
+  public int intern(String name) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      synchronized (this) {
+        id = ids.get(name);
+        if (id == null) {
+          id = size++;
+          if (id == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+          }
+          names[id] = name;
+          ids.put(name, id);
+        }
+      }
+    }
+    return id;
+  }
+
+  public int find(String name) {
+    Integer id = ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+  public String name(int id) {
+    return names[id];
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
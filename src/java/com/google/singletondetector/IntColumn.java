@@ -0,0 +1,104 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable sequence of ints, kept in chunks of Memory. Slots never move
+ * once allocated, so they may be read and written from any thread while
+ * another grows the column; only growing is synchronized. Slots read as
+ * zero until written.
+ */
+class IntColumn {
+  private final Memory memory;
+  private final int shift;
+  private final int mask;
+
+  private volatile IntBuffer[] chunks = new IntBuffer[0];
+
+  // The number of ints appended by add()
+  private int size = 0;
+
+  IntColumn(Memory memory) {
+    this.memory = memory;
+    this.shift = memory.getChunkShift();
+    this.mask = memory.getChunkSize() - 1;
+  }
+
+  public int get(int i) {
+    return chunks[i >>> shift].get(i & mask);
+  }
+
+  public void set(int i, int value) {
+    chunks[i >>> shift].put(i & mask, value);
+  }
+
+  /**
+   * Returns the number of slots allocated, which may be read and written.
+   */
+  public int getCapacity() {
+    return chunks.length << shift;
+  }
+
+  /**
+   * Allocates slots until there are at least a number of them.
+   */
+  public synchronized void ensureCapacity(int capacity) {
+    IntBuffer[] chunks = this.chunks;
+    if (capacity > chunks.length << shift) {
+      int count = (int) ((capacity + (long) mask) >>> shift);
+      IntBuffer[] grown = Arrays.copyOf(chunks, count);
+      for (int i = chunks.length; i < count; i++) {
+        grown[i] = memory.allocate();
+      }
+      this.chunks = grown;
+    }
+  }
+
+  /**
+   * Appends an int after the last one appended, returning its index. Not
+   * safe to call from several threads at once.
+   */
+  public int add(int value) {
+    if (size == getCapacity()) {
+      ensureCapacity(size + 1);
+    }
+    set(size, value);
+    return size++;
+  }
+
+  /**
+   * Returns the number of ints appended by add().
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gives the column's chunks back to its memory, leaving it empty. No other
+   * thread may be using it.
+   */
+  public synchronized void free() {
+    IntBuffer[] chunks = this.chunks;
+    this.chunks = new IntBuffer[0];
+    size = 0;
+    for (IntBuffer chunk : chunks) {
+      memory.free(chunk);
+    }
+  }
+}
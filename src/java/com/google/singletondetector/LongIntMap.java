@@ -0,0 +1,90 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing map from non-negative longs to ints, which looks up
+ * without boxing. Not thread safe.
+ */
+class LongIntMap {
+  private static final long EMPTY = -1L;
+
+  private long[] keys = newKeys(16);
+  private int[] values = new int[16];
+  private int size = 0;
+
+  private static long[] newKeys(int capacity) {
+    long[] keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    return keys;
+  }
+
+  /**
+   * Returns the value of a key, or -1 if it has none.
+   */
+  int get(long key) {
+    int mask = keys.length - 1;
+    for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return values[i];
+      } else if (keys[i] == EMPTY) {
+        return -1;
+      }
+    }
+  }
+
+  void put(long key, int value) {
+    if (2 * (size + 1) > keys.length) {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = newKeys(oldKeys.length * 2);
+      values = new int[oldKeys.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != EMPTY) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+    int mask = keys.length - 1;
+    int i = slot(key, mask);
+    while (keys[i] != EMPTY && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    if (keys[i] == EMPTY) {
+      size++;
+    }
+    keys[i] = key;
+    values[i] = value;
+  }
+
+  /**
+   * Removes every key, keeping the space they took.
+   */
+  void clear() {
+    if (size > 0) {
+      Arrays.fill(keys, EMPTY);
+      size = 0;
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    long hash = key * 0x9e3779b97f4a7c15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+}
@@ -59,7 +59,61 @@ public class Main {
         } else {
           flags.setThreshold(Integer.parseInt(args[i]));
         }
-      } else if (arg.charAt(0) == '-') {
+      } else if (arg.equals("--max-open-archives")
+          || arg.equals("--release") || arg.equals("--threads")
+          || arg.equals("--readers") || arg.equals("--queue-size")
+          || arg.equals("--max-class-bytes")) {
+        if (++i >= args.length) {
+          System.out.println("gsd.jar: " + arg + " must be followed by a value\n");
+          printUsage();
+          System.exit(0);
+        } else if (arg.equals("--release")) {
+          flags.setRelease(parseValue(arg, args[i], 0));
+        } else if (arg.equals("--threads")) {
+          flags.setParallelism(parseValue(arg, args[i], 1));
+        } else if (arg.equals("--readers")) {
+          flags.setReaders(parseValue(arg, args[i], 1));
+        } else if (arg.equals("--queue-size")) {
+          flags.setQueueCapacity(parseValue(arg, args[i], 1));
+        } else if (arg.equals("--max-class-bytes")) {
+          flags.setMaxClassBytes(parseValue(arg, args[i], 0));
+        } else {
+          flags.setMaxOpenArchives(parseValue(arg, args[i], 0));
+        }
+      } else if (arg.equals("--asm-code")) {
+        flags.setUseAsmForCode(true);
+      } else if (arg.equals("--virtual-threads")) {
+        flags.setUseVirtualThreads(true);
+      } else if (arg.equals("--off-heap")) {
+        flags.setUseOffHeapModel(true);
+      } else if (arg.equals("--reread")) {
+        flags.setRereadsClasses(true);
+      } else if (arg.equals("--count-sites")) {
+        flags.setCountsCallSites(true);
+      } else if (arg.equals("--edge-methods")) {
+        flags.setRecordsEdgeMethods(true);
+      } else if (arg.equals("--include") || arg.equals("--exclude")) {
+        if (++i >= args.length) {
+          System.out.println("gsd.jar: " + arg + " must be followed by a package\n");
+          printUsage();
+          System.exit(0);
+        } else if (arg.equals("--include")) {
+          flags.addIncludedPackage(args[i]);
+        } else {
+          flags.addExcludedPackage(args[i]);
+        }
+      } else if (arg.equals("--include-module")
+          || arg.equals("--exclude-module")) {
+        if (++i >= args.length) {
+          System.out.println("gsd.jar: " + arg + " must be followed by a module\n");
+          printUsage();
+          System.exit(0);
+        } else if (arg.equals("--include-module")) {
+          flags.addIncludedModule(args[i]);
+        } else {
+          flags.addExcludedModule(args[i]);
+        }
+      } else if (arg.charAt(0) == '-' && !arg.equals("-")) {
         if (!setFlags(flags, arg)) {
           System.out.println();
           printUsage();
@@ -125,9 +179,29 @@ public class Main {
     return success;
   }
 
+  /**
+   * Parses the number following an option, or prints the usage and exits if
+   * it is not a number of at least the given minimum.
+   */
+  private static int parseValue(String arg, String value, int min) {
+    int ret;
+    try {
+      ret = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      ret = min - 1;
+    }
+    if (ret < min) {
+      System.out.println("gsd.jar: " + arg
+          + " must be followed by a number of at least " + min + "\n");
+      printUsage();
+      System.exit(0);
+    }
+    return ret;
+  }
+
   private static void printUsage() {
     String usage =
-        "Usage: java -jar gsd.jar [-(VvshmfoSb)] [-t <threshold>] <classes dir/jar> <output file> [<package>]\n"
+        "Usage: java -jar gsd.jar [-(VvshmfoSb)] [-t <threshold>] [--count-sites] [--edge-methods] [--(in|ex)clude <package>]... [--(in|ex)clude-module <module>]... [--release <n>] [--max-open-archives <n>] [--threads <n>] [--readers <n>] [--queue-size <n>] [--max-class-bytes <n>] [--reread] [--virtual-threads] [--off-heap] [--asm-code] <classpath> <output file> [<package>]\n"
             + " -V       - Print version and exit\n"
             + " -v       - Enable verbose mode\n"
             + " -s       - Hide singletons\n"
@@ -137,7 +211,23 @@ public class Main {
             + " -o       - Hide others\n"
             + " -S       - Print statistics upon completion\n"
             + " -b       - Add stats banner to the graph\n"
-            + " -t <val> - Threshold (minimum edges required to draw a node)";
+            + " -t <val> - Threshold (minimum edges required to draw a node)\n"
+            + " --count-sites             - Count call sites rather than edges towards the threshold\n"
+            + " --edge-methods            - List the methods making each edge in the graph\n"
+            + " --include <package>       - Only analyze this package and those beneath it (e.g. com.acme, com.*.api)\n"
+            + " --exclude <package>       - Skip this package and those beneath it\n"
+            + " --include-module <module> - Only read this module of a runtime image or jmods (e.g. java.base, jdk.*)\n"
+            + " --exclude-module <module> - Skip this module of a runtime image or jmods\n"
+            + " --release <n>             - Read multi-release jars as Java release n would (default: this JVM's)\n"
+            + " --max-open-archives <n>   - Keep at most n archives open at once (default 64)\n"
+            + " --threads <n>             - Parse classes on n threads (default: one per core)\n"
+            + " --readers <n>             - Read up to n classpath entries at once (default: one per core)\n"
+            + " --queue-size <n>          - Queue at most n classes between reading and parsing (default 256)\n"
+            + " --max-class-bytes <n>     - Hold at most n bytes of class files between reading and parsing\n"
+            + " --reread                  - Read the classpath twice rather than keep the call sites found in between\n"
+            + " --virtual-threads         - Read each classpath entry and package on a thread of its own\n"
+            + " --off-heap                - Keep the model of the classes read in memory mapped files, off the heap\n"
+            + " --asm-code                - Read method bodies with ASM rather than the built-in scanner";
 
     System.out.println(usage);
   }
@@ -148,16 +238,28 @@ public class Main {
     // Create the singleton detector
     SingletonDetector detector =
         new SingletonDetector(dir, prefix, flags);
+    try {
+      // Get output and write to the specified file
+      BufferedWriter out = new BufferedWriter(new FileWriter(outfile));
+      out.write(detector.getGraphMlOutput());
+      out.close();
 
-    // Get output and write to the specified file
-    BufferedWriter out = new BufferedWriter(new FileWriter(outfile));
-    out.write(detector.getGraphMlOutput());
-    out.close();
+      // Warn about classes whose copies differ, as only one was analysed
+      if (!detector.getConflicts().isEmpty()) {
+        System.out.println("Warning: classes found with differing copies, "
+            + "only the first of each was analyzed:");
+        for (String name : detector.getConflicts()) {
+          System.out.println("  " + name.replace('/', '.'));
+        }
+      }
 
-    // Show statistics if necessary
-    if (flags.showStats()) {
-      System.out.println();
-      System.out.println(detector.getOutput(true));
+      // Show statistics if necessary
+      if (flags.showStats()) {
+        System.out.println();
+        System.out.println(detector.getOutput(true));
+      }
+    } finally {
+      detector.close();
     }
   }
 }
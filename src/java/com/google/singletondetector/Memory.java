@@ -0,0 +1,162 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import com.google.singletondetector.classpath.Mappings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the detector keeps its model of the classes read: on the heap, or
+ * off it, in memory mapped from temporary files, which the garbage
+ * collector never scans or copies and the operating system may page out.
+ * Memory is handed out in chunks of ints of one fixed size, which never move
+ * once allocated, so that growing a structure does not copy it. Mapped
+ * chunks are unmapped as soon as they are freed, or when the memory is
+ * closed, rather than whenever the garbage collector gets to them.
+ */
+abstract class Memory {
+  /**
+   * Chunks of 16K ints allocated on the heap.
+   */
+  static final Memory HEAP = new Memory(14) {
+    @Override
+    IntBuffer allocate() {
+      return IntBuffer.allocate(getChunkSize());
+    }
+  };
+
+  private final int chunkShift;
+
+  Memory(int chunkShift) {
+    this.chunkShift = chunkShift;
+  }
+
+  /**
+   * Returns memory mapped from temporary files, in chunks of 256K ints. Each
+   * file is deleted as soon as it is mapped, so nothing is left behind
+   * however the JVM exits.
+   */
+  static Memory offHeap() {
+    return new MappedMemory();
+  }
+
+  /**
+   * Returns the base 2 logarithm of the chunk size.
+   */
+  int getChunkShift() {
+    return chunkShift;
+  }
+
+  int getChunkSize() {
+    return 1 << chunkShift;
+  }
+
+  /**
+   * Returns a new chunk, with every int zero.
+   */
+  abstract IntBuffer allocate();
+
+  /**
+   * Gives back a chunk which is no longer read or written by any thread.
+   */
+  void free(IntBuffer chunk) {
+  }
+
+  /**
+   * Gives back every chunk not yet freed, once nothing allocated from this
+   * memory is used any more.
+   */
+  void close() {
+  }
+
+  private static class MappedMemory extends Memory {
+    // The mapping behind each chunk handed out and not yet freed
+    private final Map<IntBuffer, MappedByteBuffer> mappings =
+        new IdentityHashMap<IntBuffer, MappedByteBuffer>();
+
+    MappedMemory() {
+      super(18);
+    }
+
+    @Override
+    IntBuffer allocate() {
+      MappedByteBuffer mapping = map();
+      IntBuffer chunk =
+          mapping.order(ByteOrder.nativeOrder()).asIntBuffer();
+      synchronized (mappings) {
+        mappings.put(chunk, mapping);
+      }
+      return chunk;
+    }
+
+    @Override
+    void free(IntBuffer chunk) {
+      MappedByteBuffer mapping;
+      synchronized (mappings) {
+        mapping = mappings.remove(chunk);
+      }
+      if (mapping != null) {
+        Mappings.unmap(mapping);
+      }
+    }
+
+    @Override
+    void close() {
+      List<MappedByteBuffer> unmapped;
+      synchronized (mappings) {
+        unmapped = new ArrayList<MappedByteBuffer>(mappings.values());
+        mappings.clear();
+      }
+      for (MappedByteBuffer mapping : unmapped) {
+        Mappings.unmap(mapping);
+      }
+    }
+
+    private MappedByteBuffer map() {
+      try {
+        File file = File.createTempFile("singletondetector", ".bin");
+        try {
+          RandomAccessFile raf = new RandomAccessFile(file, "rw");
+          try {
+            // A file grown by mapping it reads as zeroes, and stays sparse
+            // until written
+            return raf.getChannel()
+                .map(FileChannel.MapMode.READ_WRITE, 0, 4L * getChunkSize());
+          } finally {
+            raf.close();
+          }
+        } finally {
+          if (!file.delete()) {
+            file.deleteOnExit();
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Could not map memory for the model", e);
+      }
+    }
+  }
+}
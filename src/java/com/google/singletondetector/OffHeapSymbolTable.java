@@ -0,0 +1,171 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+/**
+ * A SymbolTable holding its names in Memory, two chars to an int, with an
+ * open addressing index of their hashes. A String is only made when a name
+ * is asked for. Names are looked up without locking; only adding a new one
+ * is synchronized.
+ */
+class OffHeapSymbolTable implements SymbolTable {
+  private final Memory memory;
+
+  // Per id: the int its chars start at, their number and their hash
+  private final IntColumn starts;
+  private final IntColumn lengths;
+  private final IntColumn hashes;
+  private final IntColumn chars;
+
+  // Written once a name is fully stored, so that a lookup which reads it
+  // first sees every name with a lower id
+  private volatile int size = 0;
+
+  // Ids plus one, by hash, at most half full, and replaced by a larger copy
+  // as it fills. Its capacity is a power of two.
+  private volatile IntColumn index;
+
+  OffHeapSymbolTable(Memory memory) {
+    this.memory = memory;
+    starts = new IntColumn(memory);
+    lengths = new IntColumn(memory);
+    hashes = new IntColumn(memory);
+    chars = new IntColumn(memory);
+    index = newIndex(memory.getChunkSize());
+  }
+
+  public int intern(String name) {
+    int id = find(name);
+    if (id < 0) {
+      synchronized (this) {
+        id = find(name);
+        if (id < 0) {
+          id = add(name);
+        }
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Returns a name's id, or -1 if it has not been interned. A name being
+   * interned by another thread at the same time may not be found yet.
+   */
+  public int find(String name) {
+    int size = this.size;
+    IntColumn index = this.index;
+    int mask = index.getCapacity() - 1;
+    int hash = name.hashCode();
+    for (int i = spread(hash, mask); ; i = (i + 1) & mask) {
+      int id = index.get(i) - 1;
+      if (id < 0 || id >= size) {
+        // A name past the size read is not fully stored yet
+        return -1;
+      } else if (hashes.get(id) == hash && matches(id, name)) {
+        return id;
+      }
+    }
+  }
+
+  public String name(int id) {
+    int start = starts.get(id);
+    int length = lengths.get(id);
+    char[] name = new char[length];
+    for (int i = 0; i < length; i++) {
+      name[i] = charAt(start, i);
+    }
+    return new String(name);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Stores a name which is not in the table, returning its id. Called with
+   * the table locked.
+   */
+  private int add(String name) {
+    int id = size;
+    int hash = name.hashCode();
+    starts.add(chars.size());
+    lengths.add(name.length());
+    hashes.add(hash);
+    for (int i = 0; i < name.length(); i += 2) {
+      int low = name.charAt(i);
+      int high = i + 1 < name.length() ? name.charAt(i + 1) : 0;
+      chars.add(high << 16 | low);
+    }
+    IntColumn index = this.index;
+    if (2 * (id + 1) > index.getCapacity()) {
+      index = rehash(id, 2 * index.getCapacity());
+    }
+    int mask = index.getCapacity() - 1;
+    int i = spread(hash, mask);
+    while (index.get(i) != 0) {
+      i = (i + 1) & mask;
+    }
+    index.set(i, id + 1);
+    size = id + 1;
+    return id;
+  }
+
+  private boolean matches(int id, String name) {
+    if (lengths.get(id) != name.length()) {
+      return false;
+    }
+    int start = starts.get(id);
+    for (int i = 0; i < name.length(); i++) {
+      if (charAt(start, i) != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private char charAt(int start, int i) {
+    return (char) (chars.get(start + (i >> 1)) >>> ((i & 1) << 4));
+  }
+
+  /**
+   * Indexes the names below an id in a new index of a larger capacity, and
+   * publishes it.
+   */
+  private IntColumn rehash(int count, int capacity) {
+    IntColumn index = newIndex(capacity);
+    int mask = capacity - 1;
+    for (int id = 0; id < count; id++) {
+      int i = spread(hashes.get(id), mask);
+      while (index.get(i) != 0) {
+        i = (i + 1) & mask;
+      }
+      index.set(i, id + 1);
+    }
+    this.index = index;
+    return index;
+  }
+
+  private IntColumn newIndex(int capacity) {
+    IntColumn index = new IntColumn(memory);
+    index.ensureCapacity(capacity);
+    return index;
+  }
+
+  private static int spread(int hash, int mask) {
+    int spread = hash * 0x9e3779b9;
+    return (spread ^ spread >>> 16) & mask;
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Connects the stages of reading classes: the reader stage (the ClassSource,
+ * which does the I/O) hands classes to a pool of parser threads, which hand
+ * what they found to a single aggregator thread. Stages are joined by
+ * bounded queues, so a stage which runs ahead blocks instead of piling up
+ * class bytes, and memory stays flat however large the classpath. The bytes
+ * of the classes queued or being parsed may also be held under a ceiling,
+ * for when a queue of large classes would not fit.
+ *
+ * Each stage records how long it spent working and how long it was stalled,
+ * either waiting for input or blocked on a full queue, so that a run can be
+ * seen to be I/O-bound (parsers waiting for the reader) or CPU-bound (the
+ * reader blocked on a full parse queue).
+ */
+class Pipeline {
+  /**
+   * Parses one class on a parser thread.
+   */
+  interface Parser {
+    ClassContext parse(ClassReader cr);
+  }
+
+  /**
+   * Takes in the results of parsing, one at a time, on the aggregator
+   * thread.
+   */
+  interface Aggregator {
+    void aggregate(ClassContext context);
+  }
+
+  // Put on a queue once the stage feeding it has finished
+  private static final Object END = new Object();
+
+  /**
+   * A class on the parse queue, with the bytes it was read from, which are
+   * counted against the ceiling until it has been parsed.
+   */
+  private static class QueuedClass {
+    final ClassReader cr;
+    final byte[] classFile;
+
+    QueuedClass(ClassReader cr, byte[] classFile) {
+      this.cr = cr;
+      this.classFile = classFile;
+    }
+  }
+
+  private final int queueCapacity;
+  private final BlockingQueue<Object> parseQueue;
+  private final BlockingQueue<Object> aggregateQueue;
+  private final Parser parser;
+  private final Aggregator aggregator;
+  private final List<Thread> parsers = new ArrayList<Thread>();
+  private final Thread aggregatorThread;
+
+  // Permits for the bytes of the classes queued or being parsed, or null if
+  // they are not limited, and the most held at once
+  private final int maxBytes;
+  private final Semaphore bytes;
+  private final AtomicLong heldBytes = new AtomicLong();
+  private final AtomicLong peakBytes = new AtomicLong();
+
+  // The first failure of any stage, after which the others drain their
+  // queues without doing any work, as they do once the pipeline is aborted
+  private final AtomicReference<Throwable> failure =
+      new AtomicReference<Throwable>();
+  private volatile boolean aborted = false;
+
+  // Stage statistics, in nanoseconds, and queue lengths summed at each put
+  private final StageStats reading = new StageStats();
+  private final StageStats parsing = new StageStats();
+  private final StageStats aggregating = new StageStats();
+  private final AtomicLong parseQueueSum = new AtomicLong();
+  private final AtomicLong aggregateQueueSum = new AtomicLong();
+  private long started;
+
+  private static class StageStats {
+    final AtomicLong items = new AtomicLong();
+    final AtomicLong busy = new AtomicLong();
+    final AtomicLong waitingForInput = new AtomicLong();
+    final AtomicLong blockedOnOutput = new AtomicLong();
+  }
+
+  public Pipeline(int parserThreads, int queueCapacity, Parser parser,
+      Aggregator aggregator) {
+    this(parserThreads, queueCapacity, 0, parser, aggregator);
+  }
+
+  /**
+   * Makes a pipeline holding at most a number of bytes of classes between
+   * reading and parsing, or any number if it is 0. A class larger than the
+   * ceiling is still let through, alone.
+   */
+  public Pipeline(int parserThreads, int queueCapacity, int maxBytes,
+      Parser parser, Aggregator aggregator) {
+    if (parserThreads < 1) {
+      throw new IllegalArgumentException(
+          "parserThreads must be at least 1: " + parserThreads);
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException(
+          "queueCapacity must be at least 1: " + queueCapacity);
+    }
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException(
+          "maxBytes must not be negative: " + maxBytes);
+    }
+    this.queueCapacity = queueCapacity;
+    this.maxBytes = maxBytes;
+    this.bytes = maxBytes > 0 ? new Semaphore(maxBytes) : null;
+    this.parseQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+    this.aggregateQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+    this.parser = parser;
+    this.aggregator = aggregator;
+    for (int i = 0; i < parserThreads; i++) {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          parse();
+        }
+      }, "parser-" + i);
+      thread.setDaemon(true);
+      parsers.add(thread);
+    }
+    aggregatorThread = new Thread(new Runnable() {
+      public void run() {
+        aggregate();
+      }
+    }, "aggregator");
+    aggregatorThread.setDaemon(true);
+  }
+
+  public void start() {
+    started = System.nanoTime();
+    for (Thread thread : parsers) {
+      thread.start();
+    }
+    aggregatorThread.start();
+  }
+
+  /**
+   * Hands a class, read from the given bytes, to the parsers, blocking while
+   * the parse queue is full. Called by the reader stage, one class at a
+   * time.
+   */
+  public void put(ClassReader cr, byte[] classFile) {
+    reading.items.incrementAndGet();
+    parseQueueSum.addAndGet(parseQueue.size());
+    long start = System.nanoTime();
+    if (bytes != null) {
+      bytes.acquireUninterruptibly(permits(classFile));
+      long held = heldBytes.addAndGet(classFile.length);
+      while (true) {
+        long peak = peakBytes.get();
+        if (held <= peak || peakBytes.compareAndSet(peak, held)) {
+          break;
+        }
+      }
+    }
+    putUninterruptibly(parseQueue, new QueuedClass(cr, classFile));
+    reading.blockedOnOutput.addAndGet(System.nanoTime() - start);
+  }
+
+  /**
+   * Waits for every class put so far to be parsed and aggregated, then
+   * rethrows the first failure of any stage.
+   */
+  public void finish() {
+    stop();
+
+    // Whatever the reader did not spend blocked was spent reading
+    long elapsed = System.nanoTime() - started;
+    reading.busy.set(elapsed - reading.blockedOnOutput.get());
+
+    Throwable t = failure.get();
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else if (t != null) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  /**
+   * Stops the parser and aggregator threads once the reader stage has
+   * failed, dropping the classes still queued. Unlike finish(), it throws
+   * nothing, so that the reader's own failure is the one reported.
+   */
+  public void abort() {
+    aborted = true;
+    stop();
+  }
+
+  /**
+   * Ends each stage once it has drained its queue, and waits for it.
+   */
+  private void stop() {
+    for (int i = 0; i < parsers.size(); i++) {
+      putUninterruptibly(parseQueue, END);
+    }
+    join(parsers);
+    putUninterruptibly(aggregateQueue, END);
+    join(Collections.singletonList(aggregatorThread));
+  }
+
+  private void parse() {
+    while (true) {
+      long start = System.nanoTime();
+      Object item = takeUninterruptibly(parseQueue);
+      long taken = System.nanoTime();
+      parsing.waitingForInput.addAndGet(taken - start);
+      if (item == END) {
+        return;
+      }
+      QueuedClass queued = (QueuedClass) item;
+      ClassContext context;
+      try {
+        if (failure.get() != null || aborted) {
+          continue;
+        }
+        context = parser.parse(queued.cr);
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+        continue;
+      } finally {
+        release(queued.classFile);
+      }
+      long parsed = System.nanoTime();
+      parsing.busy.addAndGet(parsed - taken);
+      parsing.items.incrementAndGet();
+      aggregateQueueSum.addAndGet(aggregateQueue.size());
+      putUninterruptibly(aggregateQueue, context);
+      parsing.blockedOnOutput.addAndGet(System.nanoTime() - parsed);
+    }
+  }
+
+  private void aggregate() {
+    while (true) {
+      long start = System.nanoTime();
+      Object item = takeUninterruptibly(aggregateQueue);
+      long taken = System.nanoTime();
+      aggregating.waitingForInput.addAndGet(taken - start);
+      if (item == END) {
+        return;
+      }
+      if (failure.get() != null || aborted) {
+        continue;
+      }
+      try {
+        aggregator.aggregate((ClassContext) item);
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+        continue;
+      }
+      aggregating.busy.addAndGet(System.nanoTime() - taken);
+      aggregating.items.incrementAndGet();
+    }
+  }
+
+  private int permits(byte[] classFile) {
+    return Math.min(classFile.length, maxBytes);
+  }
+
+  /**
+   * Gives back the bytes of a class once it has been parsed.
+   */
+  private void release(byte[] classFile) {
+    if (bytes != null) {
+      heldBytes.addAndGet(-classFile.length);
+      bytes.release(permits(classFile));
+    }
+  }
+
+  /**
+   * Describes where each stage spent its time, once the pipeline has
+   * finished.
+   */
+  public String getReport() {
+    long elapsed = Math.max(1, reading.busy.get()
+        + reading.blockedOnOutput.get());
+    long parsingTime = elapsed * parsers.size();
+    long items = Math.max(1, reading.items.get());
+    String ret = "Pipeline: " + reading.items.get() + " classes in "
+        + millis(elapsed) + " ms\n"
+        + "  read:      " + percent(reading.busy.get(), elapsed)
+        + " busy, " + percent(reading.blockedOnOutput.get(), elapsed)
+        + " blocked on a full parse queue (average length "
+        + String.format("%.1f", (double) parseQueueSum.get() / items)
+        + " of " + queueCapacity + ")\n"
+        + (bytes == null ? "" : "  held:      at most " + peakBytes.get()
+            + " bytes of classes at once (ceiling " + maxBytes
+            + ", passed only by a larger class alone)\n")
+        + "  parse:     " + threads(parsers.size()) + ", "
+        + percent(parsing.busy.get(), parsingTime) + " busy, "
+        + percent(parsing.waitingForInput.get(), parsingTime)
+        + " waiting for classes, "
+        + percent(parsing.blockedOnOutput.get(), parsingTime)
+        + " blocked handing on results\n"
+        + "  aggregate: " + percent(aggregating.busy.get(), elapsed)
+        + " busy, " + percent(aggregating.waitingForInput.get(), elapsed)
+        + " waiting for results\n";
+    if (parsing.waitingForInput.get() > parsing.busy.get()) {
+      ret += "  Parsers mostly waited on reading: the run is I/O-bound";
+    } else {
+      ret += "  Reading mostly waited on parsers: the run is CPU-bound";
+    }
+    return ret;
+  }
+
+  static String threads(int count) {
+    return count + (count == 1 ? " thread" : " threads");
+  }
+
+  private static String millis(long nanos) {
+    return Long.toString(nanos / 1000000);
+  }
+
+  private static String percent(long part, long whole) {
+    return Math.round(100.0 * part / whole) + "%";
+  }
+
+  private static void putUninterruptibly(BlockingQueue<Object> queue,
+      Object item) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          queue.put(item);
+          return;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static Object takeUninterruptibly(BlockingQueue<Object> queue) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static void join(List<Thread> threads) {
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
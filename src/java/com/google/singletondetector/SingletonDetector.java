@@ -15,9 +15,15 @@
  */
 package com.google.singletondetector;
 
+import com.google.singletondetector.classpath.ArchivePool;
 import com.google.singletondetector.classpath.ClasspathRoot;
-import com.google.singletondetector.classpath.DirectoryClasspathRoot;
-import com.google.singletondetector.classpath.JarClasspathRoot;
+import com.google.singletondetector.classpath.ClasspathRoots;
+import com.google.singletondetector.classpath.InMemoryClasspathRoot;
+import com.google.singletondetector.classpath.ModuleFilter;
+import com.google.singletondetector.classpath.PackageFilter;
+import com.google.singletondetector.classpath.ReadOptions;
+import com.google.singletondetector.classpath.Streams;
+import com.google.singletondetector.classpath.VirtualThreads;
 import com.google.singletondetector.output.FingletonOutputNode;
 import com.google.singletondetector.output.HingletonOutputNode;
 import com.google.singletondetector.output.MingletonOutputNode;
@@ -25,20 +31,21 @@ import com.google.singletondetector.output.OtherOutputNode;
 import com.google.singletondetector.output.OutputNode;
 import com.google.singletondetector.output.SingletonOutputNode;
 import com.google.singletondetector.visitors.SingletonClassVisitor;
-import com.google.singletondetector.visitors.SingletonUsageClassVisitor;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The main SingletonDetector class, which generates the visitors for each class
@@ -48,11 +55,16 @@ import java.util.Map;
  * @author David Rubel
  */
 public class SingletonDetector implements Opcodes {
-  // Map of all of the classes ready by SingletonDetector
-  private Map<String, Clazz> classes = new HashMap<String, Clazz>();
+  // Where the model of the classes read is kept, on or off the heap
+  private Memory memory;
 
-  // The class currently being read by the visitor objects
-  private Clazz currClass;
+  // The ids of every class name and descriptor read
+  private SymbolTable symbols;
+
+  // All of the classes read by SingletonDetector, filled from several
+  // threads at once, and which classes use which
+  private ClassModel classes;
+  private ClassGraph graph;
 
   // The common prefix for all classes
   private String prefix;
@@ -63,6 +75,22 @@ public class SingletonDetector implements Opcodes {
   // Statistics kept on the SingletonDetector
   private Stats stats;
 
+  // Which copy of each class is analysed, and which classes have copies
+  // that differ
+  private ClassTable classTable;
+
+  // Static calls and field accesses, held until every class is classified
+  private CallSites callSites;
+
+  // Reads method bodies for call sites without going through ASM, one
+  // scanner per thread
+  private ThreadLocal<CodeScanner> codeScanner = new ThreadLocal<CodeScanner>() {
+    @Override
+    protected CodeScanner initialValue() {
+      return new CodeScanner(symbols, flags.recordsEdgeMethods());
+    }
+  };
+
   /**
    * Test constructor, used to pass in a classpath and a list of class names
    * directly, avoiding a directory or jar.  Uses default flags.
@@ -85,54 +113,142 @@ public class SingletonDetector implements Opcodes {
    * Default constructor, used to pass in a string which represents a directory
    * or a jar.
    */
-  public SingletonDetector(String dir, String prefix, Flags flags) throws MalformedURLException {
+  public SingletonDetector(String dir, String prefix, Flags flags) throws IOException {
     this(getClassReaders(dir, prefix, flags), prefix, flags); 
   }
 
   /**
-   * Master constructor, called by all other constructors.  Requires a list of
-   * ClassReaders, which is generated in the other constructors by different
-   * methods.
+   * Constructor for class files held in memory, such as a compiler's output,
+   * mapped from their resource names (e.g. "com/acme/Foo.class"). The
+   * buffers are read in place, without being written out or copied into
+   * streams.
+   */
+  public SingletonDetector(Map<String, ByteBuffer> classFiles, String prefix,
+      Flags flags) {
+    this(new ClasspathClassSource(new InMemoryClasspathRoot(classFiles),
+        prefix, getPackageFilter(flags), flags.isVerbose()), prefix, flags);
+  }
+
+  /**
+   * Constructor for a list of ClassReaders which have already been read.
    */
   public SingletonDetector(List<ClassReader> crlist, String prefix, Flags flags) {
+    this(getClassReaders(crlist), prefix, flags);
+  }
+
+  /**
+   * Master constructor, called by all other constructors.  Requires a source
+   * of ClassReaders, which is generated in the other constructors by different
+   * methods.  The source is streamed once, and each class is parsed once,
+   * so a class need only be held in memory while it is being visited.  Only
+   * the first copy of a class found more than once is analysed.
+   */
+  public SingletonDetector(ClassSource source, String prefix, Flags flags) {
     stats = new Stats();
     this.prefix = prefix;
     this.flags = flags;
+    // The model of the classes read is kept on or off the heap
+    if (flags.useOffHeapModel()) {
+      memory = Memory.offHeap();
+      symbols = new OffHeapSymbolTable(memory);
+    } else {
+      memory = Memory.HEAP;
+      symbols = new HeapSymbolTable();
+    }
+    classes = new ClassModel(memory, symbols, flags.recordsEdgeMethods());
+    graph = classes.getGraph();
+    classTable = new ClassTable(symbols, memory);
+    callSites = new CallSites(symbols, memory);
     
     // Verbose: Begin processing
     if (flags.isVerbose()) {
       System.out.print("Processing... ");
     }
 
-    // First pass: determine the type of each class (i.e. Singleton), count the
-    //             number of read classes and remove enums
-    Iterator<ClassReader> iter = crlist.iterator();
-    for (ClassReader cr : crlist) {
-      cr.accept(new SingletonClassVisitor(this), ClassReader.SKIP_DEBUG);
-      stats.incClassesRead();
-    }
+    // First pass: determine the type of each class (i.e. Singleton), record
+    //             the static calls and field accesses it makes, count the
+    //             number of read classes and remove enums and duplicate
+    //             copies. Classes are parsed on the pipeline's threads as
+    //             the source produces them. If classes are to be read
+    //             again, their method bodies are left for later.
+    final boolean ignoreOthers = flags.ignoreOthers();
+    CallSites.Resolver resolver = new CallSites.Resolver() {
+      public int classifyInvokeStatic(int owner, int desc) {
+        return classifyStaticCall(owner, desc);
+      }
 
-    // Second pass: determine which special classes each class uses
-    for (ClassReader cr : crlist) {
-      cr.accept(new SingletonUsageClassVisitor(this), ClassReader.SKIP_DEBUG);
+      public int classifyFieldInstruction(int owner) {
+        return classifyStaticField(owner);
+      }
+
+      public int getClass(int classId) {
+        return classes.find(classId);
+      }
+
+      public void use(int user, int used, boolean invokeStatic, int method,
+          int count) {
+        if (used != user && (!invokeStatic
+            || (classes.getKinds(user) & ClassModel.SPECIAL) != 0
+            || !ignoreOthers)) {
+          graph.addUse(user, used, method, count);
+        }
+      }
+    };
+    try {
+      long start = System.nanoTime();
+      Pipeline pipeline = readClasses(source);
+
+      // Verbose: time taken to read the classpath, and where it went
+      if (flags.isVerbose()) {
+        System.out.println("Read " + stats.getClassesRead() + " classes in "
+            + (System.nanoTime() - start) / 1000000 + " ms, "
+            + readMode(flags) + ".");
+        System.out.println(pipeline.getReport());
+      }
+
+      // Second pass: now that every class is classified, turn the sites of
+      //              each class into the classes it uses. Each distinct
+      //              call or field access is classified once.
+      if (flags.rereadsClasses()) {
+        // The sites are found by reading the classes again, and resolved
+        // as they are found rather than kept
+        start = System.nanoTime();
+        callSites.resolveAsAdded(resolver);
+        pipeline = readClassesAgain(source);
+        if (flags.isVerbose()) {
+          System.out.println("Read " + stats.getBytesReread()
+              + " bytes again in " + (System.nanoTime() - start) / 1000000
+              + " ms.");
+          System.out.println(pipeline.getReport());
+        }
+      } else {
+        resolve(resolver);
+      }
+    } finally {
+      close(source);
     }
+    graph.freeze(classes.size());
     
     // Third pass: set isDrawn for each class
-    for (Clazz cl : classes.values()) {
-      cl.setIsDrawn(flags.getThreshold());
+    for (int index = 0; index < classes.size(); index++) {
+      Clazz cl = classes.get(index);
+      cl.setIsDrawn(flags.getThreshold(), flags.countsCallSites());
     }
     
     // Fourth pass: update isDrawn
     if (flags.getThreshold() > 0) {
-      for (Clazz cl : classes.values()) {
-        cl.updateIsDrawn();
+      for (int index = 0; index < classes.size(); index++) {
+        classes.get(index).updateIsDrawn();
       }
     }
 
     // Fifth pass: gather statistics
+    stats.setDuplicateClasses(classTable.getDuplicates());
+    stats.setConflictingClasses(classTable.getConflicts().size());
     if (flags.showBanner() || flags.showStats()) {
       // Get stats on current class
-      for (Clazz cl : classes.values()) {
+      for (int index = 0; index < classes.size(); index++) {
+        Clazz cl = classes.get(index);
         if (cl.isDrawn()) {
           stats.incClassesDrawn();
   
@@ -147,7 +263,8 @@ public class SingletonDetector implements Opcodes {
           }
           
           // Get stats for all used classes
-          for (Clazz used : cl.getClassesIUse()) {
+          for (int i = 0; i < graph.getUseCount(index); i++) {
+            Clazz used = classes.get(graph.getUse(index, i));
             if (used.isDrawn()) {    
               if (used.isSingleton()) {
                 stats.incSingletonUsers();
@@ -170,21 +287,211 @@ public class SingletonDetector implements Opcodes {
     }
   }
 
-  public void setCurrClass(String name) {
-    String label = removePrefix(name);
-    currClass = classes.get(label);
-    if (currClass == null) {
-      currClass = new Clazz(label);
-      classes.put(currClass.getName(), currClass);
+  /**
+   * Resolves every site recorded on a pool, once all the classes have been
+   * read.
+   */
+  private void resolve(CallSites.Resolver resolver) {
+    if (flags.isVerbose()) {
+      System.out.println("Resolving " + callSites.size() + " call sites through "
+          + callSites.getTargetCount() + " distinct targets.");
+    }
+    ForkJoinPool pool = new ForkJoinPool(flags.getParallelism());
+    try {
+      callSites.resolve(pool, resolver);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Streams every class of a source through a Pipeline, returning it once
+   * all of them have been parsed and aggregated.
+   */
+  private Pipeline readClasses(ClassSource source) {
+    final Pipeline pipeline = new Pipeline(flags.getParallelism(),
+        flags.getQueueCapacity(), flags.getMaxClassBytes(),
+        new Pipeline.Parser() {
+          public ClassContext parse(ClassReader cr) {
+            return readClass(cr);
+          }
+        }, new Pipeline.Aggregator() {
+          public void aggregate(ClassContext context) {
+            context.finish();
+            stats.incClassesParsed(context.getLevel());
+          }
+        });
+    pipeline.start();
+    boolean read = false;
+    try {
+      source.accept(new ClassSourceVisitor() {
+        public void visitClass(ClassReader cr, byte[] classFile) {
+          // Sources call this one class at a time, so the table is only
+          // touched by one thread at once
+          if (classTable.add(cr.getClassName(), classFile)) {
+            stats.incClassesRead();
+            pipeline.put(cr, classFile);
+          }
+        }
+      });
+      read = true;
+    } finally {
+      if (!read) {
+        // Stop the other stages without hiding the source's failure
+        pipeline.abort();
+      }
+    }
+    pipeline.finish();
+    return pipeline;
+  }
+
+  /**
+   * Streams the classes of a source through a Pipeline a second time, once
+   * they have all been classified, reading the method bodies of the copies
+   * analysed for their call sites. Fails if the source does not produce
+   * every one of them again.
+   */
+  private Pipeline readClassesAgain(ClassSource source) {
+    final Pipeline pipeline = new Pipeline(flags.getParallelism(),
+        flags.getQueueCapacity(), flags.getMaxClassBytes(),
+        new Pipeline.Parser() {
+          public ClassContext parse(ClassReader cr) {
+            return readClassAgain(cr);
+          }
+        }, new Pipeline.Aggregator() {
+          public void aggregate(ClassContext context) {
+            context.finish();
+          }
+        });
+    final int[] reread = new int[1];
+    pipeline.start();
+    boolean read = false;
+    try {
+      source.accept(new ClassSourceVisitor() {
+        public void visitClass(ClassReader cr, byte[] classFile) {
+          stats.addBytesReread(classFile.length);
+          if (classTable.addAgain(cr.getClassName(), classFile)) {
+            reread[0]++;
+            pipeline.put(cr, classFile);
+          }
+        }
+      });
+      read = true;
+    } finally {
+      if (!read) {
+        pipeline.abort();
+      }
+    }
+    pipeline.finish();
+    if (reread[0] != stats.getClassesRead()) {
+      throw new IllegalStateException("Only " + reread[0] + " of "
+          + stats.getClassesRead() + " classes were found when reading the "
+          + "classpath again");
+    }
+    return pipeline;
+  }
+
+  /**
+   * Reads one class, parsing it no further than its constant pool shows to
+   * be needed. Method bodies are read with the CodeScanner, falling back to
+   * ASM for any class it cannot decode.
+   */
+  private ClassContext readClass(ClassReader cr) {
+    int level = ClassPrefilter.level(cr);
+    ClassContext context = new ClassContext(this, callSites, level);
+    if (level == ClassPrefilter.NAME_ONLY) {
+      context.setCurrClass(cr.getClassName());
+    } else if (level == ClassPrefilter.FULL && flags.rereadsClasses()) {
+      // The method bodies are read in the second pass
+      cr.accept(new SingletonClassVisitor(context, false),
+          ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE);
+    } else if (level == ClassPrefilter.FULL && !flags.useAsmForCode()
+        && codeScanner.get().scan(cr)) {
+      cr.accept(new SingletonClassVisitor(context, false),
+          ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE);
+      codeScanner.get().record(context);
+    } else {
+      int skip = level == ClassPrefilter.MEMBERS
+          ? ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE
+          : ClassReader.SKIP_DEBUG;
+      cr.accept(new SingletonClassVisitor(context), skip);
+    }
+    return context;
+  }
+
+  /**
+   * Reads the method bodies of a class classified in the first pass, if it
+   * has any call sites to find.
+   */
+  private ClassContext readClassAgain(ClassReader cr) {
+    ClassContext context =
+        new ClassContext(this, callSites, ClassPrefilter.FULL);
+    if (ClassPrefilter.level(cr) == ClassPrefilter.FULL) {
+      context.setCurrClass(cr.getClassName());
+      if (!flags.useAsmForCode() && codeScanner.get().scan(cr)) {
+        codeScanner.get().record(context);
+      } else {
+        cr.accept(new SingletonClassVisitor(context, false, true),
+            ClassReader.SKIP_DEBUG);
+      }
+    }
+    return context;
+  }
+
+  private static String readMode(Flags flags) {
+    String parsing = Pipeline.threads(flags.getParallelism()) + " parsing";
+    if (!flags.useVirtualThreads()) {
+      return Pipeline.threads(flags.getReaders()) + " reading, " + parsing;
     }
+    return (VirtualThreads.isAvailable() ? "a virtual thread"
+        : "a platform thread") + " reading each root, " + parsing;
   }
 
-  public Clazz getCurrClass() {
-    return currClass;
+  /**
+   * Returns the class with the id of a label, creating it the first time it
+   * is asked for. Safe to call from several threads at once.
+   */
+  Clazz getOrCreateClass(int id) {
+    return classes.get(classes.getOrCreate(id));
+  }
+
+  /**
+   * Returns the id of the label of the class with the id of an internal name,
+   * or -1 if no class has that label.
+   */
+  private int labelOf(int id) {
+    String name = symbols.name(id);
+    String label = removePrefix(name);
+    return label == name ? id : symbols.find(label);
+  }
+
+  /**
+   * Returns the internal names of the classes found more than once with
+   * differing contents. Only the first copy of each was analysed.
+   */
+  public SortedSet<String> getConflicts() {
+    return classTable.getConflicts();
   }
 
   public Clazz getClass(String name) {
-    return classes.get(removePrefix(name));
+    int index = classes.find(symbols.find(removePrefix(name)));
+    return index < 0 ? null : classes.get(index);
+  }
+
+  SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  /**
+   * Releases the memory the model of the classes is kept in, unmapping it
+   * if it is off the heap. Nothing may be asked of the detector afterwards.
+   */
+  public void close() {
+    memory.close();
+  }
+
+  public Flags getFlags() {
+    return flags;
   }
 
   public String getPrefix() {
@@ -217,151 +524,127 @@ public class SingletonDetector implements Opcodes {
   /*                         CLASS READER METHODS                          */
   /*************************************************************************/
   
-  private static ClassReader getClassReader(ClasspathRoot classpath,
+  private static byte[] getClassFile(ClasspathRoot classpath,
       String className) throws IOException {
     String resourceName = className;
     if (!resourceName.endsWith(".class")) {
       resourceName += ".class";
     }
-    ClassReader cr =
-        new ClassReader(classpath.getResourceAsStream(resourceName));
-    return cr;
-  }
-
-  private static boolean validcr(ClassReader cr, String prefix) {
-    return !cr.getSuperName().equals("java/lang/Enum")
-        && cr.getClassName().startsWith(prefix);
-  }
-
-  private static List<ClassReader> getClassReaders(ClasspathRoot classpath,
-      String[] classNames, String prefix) {
-    List<ClassReader> crlist = new ArrayList<ClassReader>();
-    for (String className : classNames) {
-      ClassReader cr;
-      try {
-        cr = getClassReader(classpath, className);
-        if (validcr(cr, prefix)) {
-          crlist.add(cr);
-        }
-      } catch (IOException e) {
-        System.out.println("Failed to read " + className);
-      }
+    InputStream in = classpath.getResourceAsStream(resourceName);
+    if (in == null) {
+      throw new IOException("Class not found");
     }
-    return crlist;
+    return Streams.readFully(in);
   }
-  
-  private static List<ClassReader> getClassReaders(String dir, String prefix,
-      Flags flags) throws MalformedURLException {
-    List<ClassReader> crlist = new ArrayList<ClassReader>();
-
-    // Get the classpath for the classes directory or jar
-    URL root = new File(dir).toURI().toURL();
-    ClasspathRoot classpath;
-    if (dir.endsWith(".jar")) {
-      classpath = new JarClasspathRoot(root);
-    } else {
-      classpath = new DirectoryClasspathRoot(root);
-    }
 
-    // Get the class readers for each class
-    buildCrlist(root, classpath, prefix, "", crlist, flags.isVerbose());
-    
-    return crlist;
-  }
-  
-  private static void buildCrlist(URL root, ClasspathRoot classpath,
-      String prefix, String packageName, List<ClassReader> crlist,
-      boolean verbose) throws MalformedURLException {
-    for (String resource : classpath.getResources(packageName)) {
-      if (resource.endsWith(".class")) {
-        String className = packageName + resource;
-        //className = className.replace(".class", "").replace('/', '.');
-        if (!className.contains("$")) {
-          ClassReader cr;
+  private static ClassSource getClassReaders(final ClasspathRoot classpath,
+      final String[] classNames, final String prefix) {
+    return new ClassSource() {
+      public void accept(ClassSourceVisitor visitor) {
+        for (String className : classNames) {
+          byte[] classFile;
           try {
-            cr = getClassReader(classpath, className);
-            if (validcr(cr, prefix)) {
-              if (verbose) {
-                System.out.println("Found: "
-                    + cr.getClassName().replace("/", "."));
-              }
-              crlist.add(cr);
-            }
+            classFile = getClassFile(classpath, className);
           } catch (IOException e) {
             System.out.println("Failed to read " + className);
+            continue;
+          }
+          ClassReader cr = new ClassReader(classFile);
+          if (ClasspathClassSource.isValid(cr, prefix)) {
+            visitor.visitClass(cr, classFile);
           }
         }
-      } else if (resource.endsWith(".jar")) {
-        String temp = root.getPath() + packageName + resource;
-        URL jarRoot = new File(temp).toURI().toURL();
-        ClasspathRoot jarPath = new JarClasspathRoot(jarRoot);
-        buildCrlist(jarRoot, jarPath, prefix, "", crlist, verbose);
-      } else {
-        buildCrlist(root, classpath, prefix, packageName + resource + "/", crlist,
-            verbose);
       }
+
+      public void close() {
+        // The classpath belongs to the caller
+      }
+    };
+  }
+
+  private static ClassSource getClassReaders(String dir, String prefix,
+      Flags flags) throws IOException {
+    // Each run holds its archives in a pool of its own
+    ReadOptions options = new ReadOptions()
+        .withModules(new ModuleFilter(flags.getIncludedModules(),
+            flags.getExcludedModules()))
+        .withReaders(flags.getReaders())
+        .withThreadPerTask(flags.useVirtualThreads())
+        .withPool(new ArchivePool(flags.getMaxOpenArchives() > 0
+            ? flags.getMaxOpenArchives() : ArchivePool.DEFAULT_CAPACITY));
+    if (flags.getRelease() > 0) {
+      options = options.withRelease(flags.getRelease());
     }
+    return new ClasspathClassSource(ClasspathRoots.forPath(dir, options),
+        prefix, getPackageFilter(flags), flags.isVerbose());
   }
 
-  /*************************************************************************/
-  /*                          VISITOR METHODS                              */
-  /*************************************************************************/
+  private static PackageFilter getPackageFilter(Flags flags) {
+    return new PackageFilter(flags.getIncludedPackages(),
+        flags.getExcludedPackages());
+  }
 
-  public void addStaticField(String name, String desc) {
-    // Visitor guarantees field is private, static and not final
-    if (desc.startsWith("L")) {
-      desc = desc.substring(1, desc.length() - 1);
-      currClass.addStaticField(name, removePrefix(desc));
+  private static void close(ClassSource source) {
+    try {
+      source.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
   }
 
-  public void visitStaticField(String name, String desc) {
-    // Visitor guarantees field is public and static
-    currClass.visitStaticField(name, desc, flags);
-  }
+  private static ClassSource getClassReaders(final List<ClassReader> crlist) {
+    return new ClassSource() {
+      // Readers handed in by the caller are the one place the class file is
+      // known only through the reader itself
+      @SuppressWarnings("deprecation")
+      public void accept(ClassSourceVisitor visitor) {
+        for (ClassReader cr : crlist) {
+          visitor.visitClass(cr, cr.b);
+        }
+      }
 
-  public void visitStaticMethod(String name, String desc) {
-    String[] ret = splitDesc(desc);
-    String params = ret[0];
-    String returnType = ret[1];
-    if (returnType.startsWith("L")) {
-      returnType = returnType.substring(1);
-      if (!returnType.startsWith("java/")
-          && returnType.startsWith(prefix)) {
-        currClass.visitStaticMethod(name, params, removePrefix(returnType), flags);
+      public void close() {
       }
-    }
+    };
   }
 
-  public void invokeStatic(String referencedClass, String desc) {
-    String[] ret = splitDesc(desc);
-    String params = ret[0];
-    String returnType = ret[1];
-    if (returnType.startsWith("L")) {
-      returnType = returnType.substring(1);
-      returnType = removePrefix(returnType);
-      referencedClass = removePrefix(referencedClass);
+  /*************************************************************************/
+  /*                        RESOLUTION METHODS                             */
+  /*************************************************************************/
 
-      Clazz cl = classes.get(referencedClass);
-      if (cl != null && cl != currClass
-          && (currClass.isSpecial() || !flags.ignoreOthers())) {
-        if (returnType.equals(referencedClass) && cl.isSingleton()) {
-          currClass.addClassIUse(cl);
+  /**
+   * Returns the index of the class a static call makes its caller use, if it
+   * is a singleton, hingleton or mingleton use, or -1. Whether the caller
+   * may use it at all is decided per caller.
+   */
+  private int classifyStaticCall(int referencedClass, int desc) {
+    String descriptor = symbols.name(desc);
+    int paramsEnd = descriptor.indexOf(')');
+    if (descriptor.charAt(paramsEnd + 1) == 'L') {
+      int index = classes.find(labelOf(referencedClass));
+      if (index >= 0) {
+        Clazz cl = classes.get(index);
+        int returnType = symbols.find(removePrefix(
+            descriptor.substring(paramsEnd + 2, descriptor.length() - 1)));
+        if (returnType == cl.getId() && cl.isSingleton()) {
+          return index;
         } else if (cl.doIHingle(returnType) && cl.isHingleton()) {
-          currClass.addClassIUse(cl);
-        } else if (params.equals("") && cl.isMingleton()) {
-          currClass.addClassIUse(cl);
+          return index;
+        } else if (paramsEnd == 1 && cl.isMingleton()) {
+          return index;
         }
       }
     }
-
+    return -1;
   }
 
-  public void fieldInstruction(String owner) {
-    Clazz cl = classes.get(removePrefix(owner));
-    if (cl != null && cl != currClass && cl.isFingleton()) {
-      currClass.addClassIUse(cl);
-    }
+  /**
+   * Returns the index of the class a static field access makes its caller
+   * use, if it is a fingleton, or -1.
+   */
+  private int classifyStaticField(int owner) {
+    int index = classes.find(labelOf(owner));
+    return index >= 0 && classes.get(index).isFingleton() ? index : -1;
   }
 
   /*************************************************************************/
@@ -373,7 +656,7 @@ public class SingletonDetector implements Opcodes {
   }
 
   public String getGraphMlOutput() {
-    HashMap<String, OutputNode> nodes = getOutputNodes();
+    List<OutputNode> nodes = getOutputNodes();
     String nodeOutput = "";
     String edgeOutput = "";
     
@@ -383,7 +666,7 @@ public class SingletonDetector implements Opcodes {
     }
     
     // Fill buffers
-    for (OutputNode node : nodes.values()) {
+    for (OutputNode node : nodes) {
       nodeOutput += node.getGraphMlNode();
       edgeOutput += node.getGraphMlEdges();
     }
@@ -411,48 +694,79 @@ public class SingletonDetector implements Opcodes {
         + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns/graphml\" xmlns:y=\"http://www.yworks.com/xml/graphml\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns/graphml http://www.yworks.com/xml/schema/graphml/1.0/ygraphml.xsd\">\n"
         + "<key id=\"d0\" for=\"node\" yfiles.type=\"nodegraphics\"/>\n"
         + "<key id=\"d1\" for=\"edge\" yfiles.type=\"edgegraphics\"/>\n"
+        + "<key id=\"d2\" for=\"edge\" attr.name=\"callSites\" attr.type=\"int\"/>\n"
+        + "<key id=\"d3\" for=\"edge\" attr.name=\"methods\" attr.type=\"int\"/>\n"
+        + (graph.keepsMethods() ? "<key id=\"d4\" for=\"edge\" attr.name=\"callers\" attr.type=\"string\"/>\n" : "")
         + "  <graph id=\"SingletonDetector\" edgedefault=\"directed\">\n"
         + banner + nodeOutput + edgeOutput + "  </graph>\n" + "</graphml>";
   }
 
-  private HashMap<String, OutputNode> getOutputNodes() {
-    HashMap<String, OutputNode> nodes = new HashMap<String, OutputNode>();
-
-    for (String className : classes.keySet()) {
-      Clazz clazz = classes.get(className);
+  private List<OutputNode> getOutputNodes() {
+    // The node of each drawn class, by its index
+    Map<Integer, OutputNode> nodesByIndex = new HashMap<Integer, OutputNode>();
+    List<OutputNode> nodes = new ArrayList<OutputNode>();
 
+    for (int index = 0; index < classes.size(); index++) {
+      Clazz clazz = classes.get(index);
       if (clazz.isDrawn()) {
-        if (!nodes.containsKey(className)) {
-          nodes.put(className, newOutputNode(clazz));
-        }
+        OutputNode node = getOutputNode(nodesByIndex, nodes, clazz);
 
         // Process all classes that this class uses
-        for (Clazz usedClazz : clazz.getClassesIUse()) {
+        for (int i = 0; i < graph.getUseCount(index); i++) {
+          Clazz usedClazz = classes.get(graph.getUse(index, i));
           if (usedClazz.isDrawn()) {
-            String usedName = usedClazz.getName();
-
-            // Add the using class
-            if (!nodes.containsKey(usedName)) {
-              nodes.put(usedName, newOutputNode(usedClazz));
-            }
-
-            // Add the edge
-            nodes.get(className).addEdge(nodes.get(usedName));
+            // Add the edge, and the used class if it is new
+            node.addEdge(getOutputNode(nodesByIndex, nodes, usedClazz),
+                graph.getSiteCount(index, i), graph.getMethodCount(index, i),
+                getCallers(index, i));
           }
         }
       }
     }
 
+    // Sorted so that the graph is written in the same order on every run
+    Collections.sort(nodes, new Comparator<OutputNode>() {
+      public int compare(OutputNode a, OutputNode b) {
+        return a.getClassName().compareTo(b.getClassName());
+      }
+    });
     return nodes;
   }
 
+  /**
+   * Returns the names of the methods making one of the uses of a class, or
+   * null if they were not kept.
+   */
+  private List<String> getCallers(int user, int i) {
+    if (!graph.keepsMethods()) {
+      return null;
+    }
+    List<String> callers = new ArrayList<String>();
+    for (int k = 0; k < graph.getMethodCount(user, i); k++) {
+      callers.add(symbols.name(graph.getMethod(user, i, k)));
+    }
+    Collections.sort(callers);
+    return callers;
+  }
+
+  private OutputNode getOutputNode(Map<Integer, OutputNode> nodesByIndex,
+      List<OutputNode> nodes, Clazz clazz) {
+    OutputNode node = nodesByIndex.get(clazz.getIndex());
+    if (node == null) {
+      node = newOutputNode(clazz);
+      nodesByIndex.put(clazz.getIndex(), node);
+      nodes.add(node);
+    }
+    return node;
+  }
+
   private OutputNode newOutputNode(Clazz clazz) {
     OutputNode node;
 
     if (clazz.isSingleton()) {
       node = new SingletonOutputNode(clazz.getName());
     } else if (clazz.isHingleton()) {
-      String classIHingle = clazz.getClassIHingle();
+      String classIHingle = symbols.name(clazz.getClassIHingle());
       node = new HingletonOutputNode(clazz.getName(), classIHingle);
     } else if (clazz.isMingleton()) {
       node = new MingletonOutputNode(clazz.getName());
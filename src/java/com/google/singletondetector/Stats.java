@@ -33,6 +33,11 @@ public class Stats {
   public int hingletonUsers;
   public int mingletonUsers;
   public int fingletonUsers;
+  public int duplicateClasses;
+  public int conflictingClasses;
+  public long bytesReread;
+  // Classes read by name only, without their code and in full
+  public int[] classesParsed;
 
   public Stats() {
     classesRead = 0;
@@ -45,6 +50,10 @@ public class Stats {
     hingletonUsers = 0;
     mingletonUsers = 0;
     fingletonUsers = 0;
+    duplicateClasses = 0;
+    conflictingClasses = 0;
+    bytesReread = 0;
+    classesParsed = new int[3];
   }
 
   public int getClassesDrawn() {
@@ -127,6 +136,40 @@ public class Stats {
     singletonUsers++;
   }
 
+  /**
+   * Counts a class parsed to a ClassPrefilter level.
+   */
+  public void incClassesParsed(int level) {
+    classesParsed[level]++;
+  }
+
+  public int getDuplicateClasses() {
+    return duplicateClasses;
+  }
+
+  public void setDuplicateClasses(int duplicateClasses) {
+    this.duplicateClasses = duplicateClasses;
+  }
+
+  public int getConflictingClasses() {
+    return conflictingClasses;
+  }
+
+  public void setConflictingClasses(int conflictingClasses) {
+    this.conflictingClasses = conflictingClasses;
+  }
+
+  public long getBytesReread() {
+    return bytesReread;
+  }
+
+  /**
+   * Counts the bytes of a class file read a second time.
+   */
+  public void addBytesReread(int bytes) {
+    bytesReread += bytes;
+  }
+
   public String getOutput(Flags flags, boolean pad) {
     int size = pad ? 4 : 0;
 
@@ -151,6 +194,18 @@ public class Stats {
           "\nFingletons: " + pad(fingletons, size) + "     Fingleton users: "
               + pad(fingletonUsers, size);
     }
+    if (flags.isVerbose()) {
+      ret += "\nClasses parsed: " + classesParsed[2] + " in full, "
+          + classesParsed[1] + " without code, " + classesParsed[0]
+          + " by name only";
+    }
+    if (duplicateClasses > 0) {
+      ret += "\nDuplicate copies skipped: " + duplicateClasses
+          + " (" + conflictingClasses + " classes with differing copies)";
+    }
+    if (flags.rereadsClasses()) {
+      ret += "\nBytes re-read: " + bytesReread;
+    }
     return ret;
   }
 
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+/**
+ * Gives every class name and descriptor met while reading the classpath a
+ * dense int id, the first time it is seen. The rest of the detector refers
+ * to names by id, so that each is held once and compared as an int. Safe to
+ * use from several threads at once.
+ */
+interface SymbolTable {
+  /**
+   * Returns the id of a name, giving it the next one if it has none yet.
+   */
+  int intern(String name);
+
+  /**
+   * Returns the id of a name, or -1 if it has never been interned.
+   */
+  int find(String name);
+
+  String name(int id);
+
+  int size();
+}
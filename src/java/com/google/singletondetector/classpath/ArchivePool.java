@@ -0,0 +1,175 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of open archives shared by the classpath roots. Each open
+ * archive holds a file mapping and a native inflater, so scanning thousands
+ * of jars would otherwise exhaust mappings and native memory. Once more than
+ * the pool's capacity are open, the least recently used archive is closed,
+ * freeing its inflater and unmapping its file, and reopened should a root
+ * need it again. Archives are reference counted: one which is in use when
+ * evicted is closed when its last user releases it.
+ */
+public class ArchivePool {
+  // Capacity of the shared pool unless set otherwise
+  public static final int DEFAULT_CAPACITY = 64;
+
+  private static final ArchivePool shared = new ArchivePool(DEFAULT_CAPACITY);
+
+  private int capacity;
+
+  // Open archives by key, least recently used first
+  private final LinkedHashMap<String, Handle> open =
+      new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+  // Every archive handed out and not yet closed
+  private final Map<ZipArchive, Handle> handles =
+      new IdentityHashMap<ZipArchive, Handle>();
+
+  private static class Handle {
+    final String key;
+    final ZipArchive archive;
+
+    // The mapping of the whole file, unmapped when the archive is closed
+    final ByteBuffer file;
+    int users = 0;
+    boolean evicted = false;
+
+    Handle(String key, ZipArchive archive, ByteBuffer file) {
+      this.key = key;
+      this.archive = archive;
+      this.file = file;
+    }
+  }
+
+  public ArchivePool(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the pool used by roots which are not given one.
+   */
+  public static ArchivePool getShared() {
+    return shared;
+  }
+
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    trim();
+  }
+
+  /**
+   * Returns the number of archives currently open, including evicted ones
+   * which are still in use.
+   */
+  public synchronized int getOpenCount() {
+    return handles.size();
+  }
+
+  /**
+   * Returns the archive which starts offset bytes into the file at url,
+   * opening it if need be. Every call must be paired with release().
+   */
+  public ZipArchive acquire(URL url, int offset) throws IOException {
+    String key = offset == 0 ? url.toString() : url + "#" + offset;
+    synchronized (this) {
+      Handle handle = open.get(key);
+      if (handle != null) {
+        handle.users++;
+        return handle.archive;
+      }
+    }
+
+    // Map and index the archive without holding up other threads
+    ByteBuffer file = ZipArchive.map(url);
+    file.position(offset);
+    ZipArchive archive;
+    try {
+      archive = new ZipArchive(url.toString(), file);
+    } catch (IOException e) {
+      Mappings.unmap(file);
+      throw e;
+    }
+
+    synchronized (this) {
+      Handle handle = open.get(key);
+      if (handle != null) {
+        // Another thread opened it first
+        archive.close();
+        Mappings.unmap(file);
+      } else {
+        handle = new Handle(key, archive, file);
+        open.put(key, handle);
+        handles.put(archive, handle);
+      }
+      handle.users++;
+      trim();
+      return handle.archive;
+    }
+  }
+
+  public synchronized void release(ZipArchive archive) {
+    Handle handle = handles.get(archive);
+    if (handle != null) {
+      handle.users--;
+      closeIfDone(handle);
+    }
+  }
+
+  /**
+   * Closes the archive for a file as soon as nobody is using it. Called when
+   * a root is closed.
+   */
+  public synchronized void evict(URL url, int offset) {
+    String key = offset == 0 ? url.toString() : url + "#" + offset;
+    Handle handle = open.remove(key);
+    if (handle != null) {
+      handle.evicted = true;
+      closeIfDone(handle);
+    }
+  }
+
+  private void trim() {
+    Iterator<Handle> eldest = open.values().iterator();
+    while (open.size() > capacity && eldest.hasNext()) {
+      Handle handle = eldest.next();
+      eldest.remove();
+      handle.evicted = true;
+      closeIfDone(handle);
+    }
+  }
+
+  private void closeIfDone(Handle handle) {
+    if (handle.evicted && handle.users == 0) {
+      handles.remove(handle.archive);
+      handle.archive.close();
+      Mappings.unmap(handle.file);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+/**
+ * Receives class files as they are found on the classpath. The contents of a
+ * class are only read if wantsClassFile() accepts its name, and a directory
+ * is only listed if wantsPackage() accepts its path, such as "com/acme/".
+ */
+public interface ClassFileVisitor {
+
+  boolean wantsPackage(String packagePath);
+
+  boolean wantsClassFile(String resourceName);
+
+  void visitClassFile(String resourceName, byte[] bytes);
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the name of a class straight from its class file, for roots which
+ * find classes at paths that say nothing about their package, such as the
+ * files of a container layer. Only the constant pool is walked, so this works
+ * for any class file version.
+ */
+class ClassNames {
+
+  private ClassNames() {
+  }
+
+  /**
+   * Returns the internal name of the class in a class file, such as
+   * "com/acme/Foo", or null if the bytes are not a class file.
+   */
+  static String internalName(byte[] b) {
+    try {
+      if (b.length < 10 || readInt(b, 0) != 0xcafebabe) {
+        return null;
+      }
+      int count = readShort(b, 8);
+      int[] offsets = new int[count];
+      int offset = 10;
+      for (int i = 1; i < count; i++) {
+        offsets[i] = offset;
+        switch (b[offset]) {
+          case 1: // Utf8
+            offset += 3 + readShort(b, offset + 1);
+            break;
+          case 7: // Class
+          case 8: // String
+          case 16: // MethodType
+          case 19: // Module
+          case 20: // Package
+            offset += 3;
+            break;
+          case 15: // MethodHandle
+            offset += 4;
+            break;
+          case 3: // Integer
+          case 4: // Float
+          case 9: // Fieldref
+          case 10: // Methodref
+          case 11: // InterfaceMethodref
+          case 12: // NameAndType
+          case 17: // Dynamic
+          case 18: // InvokeDynamic
+            offset += 5;
+            break;
+          case 5: // Long
+          case 6: // Double
+            offset += 9;
+            i++;
+            break;
+          default:
+            return null;
+        }
+      }
+      // Skip the access flags to reach this_class
+      int thisClass = offsets[readShort(b, offset + 2)];
+      int name = offsets[readShort(b, thisClass + 1)];
+      return new DataInputStream(new ByteArrayInputStream(b, name + 1,
+          b.length - name - 1)).readUTF();
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static int readShort(byte[] b, int offset) {
+    return ((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff);
+  }
+
+  private static int readInt(byte[] b, int offset) {
+    return (readShort(b, offset) << 16) | readShort(b, offset + 2);
+  }
+}
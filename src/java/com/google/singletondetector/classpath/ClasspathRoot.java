@@ -15,19 +15,28 @@
  */
 package com.google.singletondetector.classpath;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 
 /**
  * An entry on the classpath, which may be a directory or jar. Implementers are
- * provided for each type.
+ * provided for each type. Roots hold open files or classloaders until they
+ * are closed.
  * 
  * @author misko, pepstein
  */
-public interface ClasspathRoot {
+public interface ClasspathRoot extends Closeable {
 
   InputStream getResourceAsStream(String resourceName);
 
   Collection<String> getResources(String packageName);
 
+  /**
+   * Streams every class file under this root, including those in archives
+   * it contains, to the visitor.
+   */
+  void accept(ClassFileVisitor visitor) throws IOException;
+
 }
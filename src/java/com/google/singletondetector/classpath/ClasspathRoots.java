@@ -0,0 +1,160 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the ClasspathRoot implementation for a path given on the command line
+ * or found while scanning another root.
+ */
+public class ClasspathRoots {
+  // Names the running JVM's runtime image on a classpath
+  public static final String JRT = "jrt:/";
+
+  // Names standard input, read as a tar stream, on a classpath
+  public static final String STDIN = "-";
+
+  private ClasspathRoots() {
+  }
+
+  public static ClasspathRoot forPath(String path) throws IOException {
+    return forPath(path, new ReadOptions());
+  }
+
+  public static ClasspathRoot forPath(String path, ModuleFilter filter)
+      throws IOException {
+    return forPath(path, new ReadOptions().withModules(filter));
+  }
+
+  public static ClasspathRoot forPath(String path, ModuleFilter filter,
+      int readers) throws IOException {
+    return forPath(path,
+        new ReadOptions().withModules(filter).withReaders(readers));
+  }
+
+  /**
+   * Returns a root for a classes directory, a jar, war, ear or jmod, a Java
+   * runtime image (a jlink output directory, or "jrt:/" for the running JVM),
+   * a tar or tar.gz (or "-" for one on standard input), or for a list of
+   * these separated by the platform's path separator. The options pick the
+   * modules read from runtime images and jmods, the number of entries of a
+   * list read at once and on what threads, the release read from
+   * multi-release jars and the pool archives are held in.
+   */
+  public static ClasspathRoot forPath(String path, ReadOptions options)
+      throws IOException {
+    List<String> elements = splitClasspath(path);
+    if (elements.size() != 1) {
+      List<ClasspathRoot> roots = new ArrayList<ClasspathRoot>();
+      for (String element : elements) {
+        roots.add(forPath(element, options));
+      }
+      return new CompositeClasspathRoot(roots, options);
+    }
+    if (path.equals(JRT)) {
+      return new JrtClasspathRoot(null, options);
+    }
+    if (path.equals(STDIN)) {
+      return new TarClasspathRoot(System.in, "stdin", options.getRelease(),
+          false);
+    }
+    File file = new File(path);
+    if (TarClasspathRoot.isTar(path)) {
+      return new TarClasspathRoot(file, options.getRelease());
+    }
+    URL url = file.toURI().toURL();
+    if (isArchive(path)) {
+      return forArchive(url, options);
+    }
+    if (new File(file, "lib/modules").isFile()) {
+      return new JrtClasspathRoot(file.getPath(), options);
+    }
+    return new DirectoryClasspathRoot(url, options);
+  }
+
+  /**
+   * Returns whether a file name is an archive which may hold classes.
+   */
+  public static boolean isArchive(String name) {
+    return ZipArchive.isArchive(name) || name.endsWith(".jmod");
+  }
+
+  /**
+   * Returns a root for an archive file, or null for a jmod whose module the
+   * options reject.
+   */
+  public static ClasspathRoot forArchive(URL url, ReadOptions options)
+      throws IOException {
+    String path = url.getPath();
+    if (path.endsWith(".jmod")) {
+      if (!options.getModules().accepts(JmodClasspathRoot.moduleName(path))) {
+        return null;
+      }
+      return new JmodClasspathRoot(url, options.getPool());
+    }
+    return forJar(url, options);
+  }
+
+  /**
+   * Returns a memory mapped root for a jar, falling back to a JarFile based
+   * root when the archive cannot be mapped.
+   */
+  public static ClasspathRoot forJar(URL url, ReadOptions options) {
+    try {
+      return new MappedJarClasspathRoot(url, options.getPool(),
+          options.getRelease());
+    } catch (IOException e) {
+      return new JarClasspathRoot(url, options.getRelease());
+    }
+  }
+
+  /**
+   * Returns the last element of a path. Directories in some filesystems, such
+   * as jrt:/, report a trailing '/' which is removed.
+   */
+  static String fileName(Path path) {
+    String name = path.getFileName().toString();
+    return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+  }
+
+  /**
+   * Splits a classpath on the path separator, keeping "jrt:/" whole where the
+   * separator is ':'.
+   */
+  private static List<String> splitClasspath(String path) {
+    List<String> elements = new ArrayList<String>();
+    String[] parts = path.split(File.pathSeparator);
+    for (int i = 0; i < parts.length; i++) {
+      String part = parts[i];
+      // Only "jrt:/" itself names the image; "jrt" followed by an absolute
+      // path is a relative directory called jrt
+      if (part.equals("jrt") && i + 1 < parts.length
+          && parts[i + 1].equals("/")) {
+        part = part + File.pathSeparator + parts[++i];
+      }
+      if (!part.equals("")) {
+        elements.add(part);
+      }
+    }
+    return elements;
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A classpath made of several roots, such as "a.jar:b.jar:classes/". Roots
+ * are scanned concurrently, each once, but a class which appears in more
+ * than one root is only handed on from the first, as the JVM would load it.
+ * A ShadowedClassFileVisitor is shown the later copies as well. Roots are
+ * read on a pool of as many threads as the ReadOptions allow
+ * readers or, when they ask for a thread per task, each on a thread of its
+ * own, with as many at once as their ArchivePool keeps open.
+ */
+public class CompositeClasspathRoot implements ClasspathRoot {
+  // The most class bytes held for roots waiting on earlier ones
+  private static final long MAX_HELD_BYTES = 32 << 20;
+
+  private final List<ClasspathRoot> roots;
+  private final int parallelism;
+
+  // Whether each root is read on a thread of its own, and how many are read
+  // at once if so
+  private final boolean threadPerRoot;
+  private final int maxRunning;
+
+  public CompositeClasspathRoot(List<ClasspathRoot> roots) {
+    this(roots, new ReadOptions());
+  }
+
+  public CompositeClasspathRoot(List<ClasspathRoot> roots, int parallelism) {
+    this(roots, new ReadOptions().withReaders(parallelism));
+  }
+
+  public CompositeClasspathRoot(List<ClasspathRoot> roots,
+      ReadOptions options) {
+    this.roots = new ArrayList<ClasspathRoot>(roots);
+    this.parallelism =
+        Math.max(1, Math.min(options.getReaders(), roots.size()));
+    this.threadPerRoot = options.threadPerTask();
+    this.maxRunning = Math.max(1, options.getPool().getCapacity());
+  }
+
+  public List<ClasspathRoot> getRoots() {
+    return Collections.unmodifiableList(roots);
+  }
+
+  public InputStream getResourceAsStream(String resourceName) {
+    for (ClasspathRoot root : roots) {
+      InputStream is = root.getResourceAsStream(resourceName);
+      if (is != null) {
+        return is;
+      }
+    }
+    return null;
+  }
+
+  public Collection<String> getResources(String packageName) {
+    Set<String> resources = new HashSet<String>();
+    for (ClasspathRoot root : roots) {
+      resources.addAll(root.getResources(packageName));
+    }
+    return resources;
+  }
+
+  /**
+   * Scans every root once, concurrently. A class is handed on as soon as no
+   * earlier root can still hold it: the classes of the earliest root still
+   * being read go straight to the visitor, while those of later roots are
+   * held until every root before them has finished, then handed on unless
+   * one of those had the class too, in which case a ShadowedClassFileVisitor
+   * is shown it as a shadowed copy. Once MAX_HELD_BYTES are held, a root
+   * waits for the roots before it instead. Calls to the visitor are
+   * serialised.
+   */
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    final Scan scan = new Scan(visitor);
+    forEachRoot(new RootTask() {
+      public void run(final int index, ClasspathRoot root) throws IOException {
+        boolean finished = false;
+        try {
+          // A root made of several roots itself passes its shadowed copies
+          // on only if they are wanted
+          root.accept(scan.shadowed != null
+              ? new ShadowedRootVisitor(scan, index)
+              : new RootVisitor(scan, index));
+          finished = true;
+        } finally {
+          scan.finish(index, finished);
+        }
+      }
+    });
+  }
+
+  /**
+   * Passes what one root finds on to the scan, with the index of the root.
+   */
+  private static class RootVisitor implements ClassFileVisitor {
+    final Scan scan;
+    final int index;
+
+    RootVisitor(Scan scan, int index) {
+      this.scan = scan;
+      this.index = index;
+    }
+
+    public boolean wantsPackage(String packagePath) {
+      return scan.wantsPackage(packagePath);
+    }
+
+    public boolean wantsClassFile(String resourceName) {
+      return scan.wantsClassFile(resourceName);
+    }
+
+    public void visitClassFile(String resourceName, byte[] bytes) {
+      scan.visitClassFile(index, resourceName, bytes, false);
+    }
+  }
+
+  private static class ShadowedRootVisitor extends RootVisitor
+      implements ShadowedClassFileVisitor {
+    ShadowedRootVisitor(Scan scan, int index) {
+      super(scan, index);
+    }
+
+    public void visitShadowedClassFile(String resourceName, byte[] bytes) {
+      scan.visitClassFile(index, resourceName, bytes, true);
+    }
+  }
+
+  /**
+   * The state of one accept(), guarded by its own lock.
+   */
+  private class Scan {
+    private final ClassFileVisitor visitor;
+
+    // The visitor, if it is also shown shadowed copies, or null
+    final ShadowedClassFileVisitor shadowed;
+
+    // Classes handed on so far, so that a class held by an earlier root, or
+    // twice by one root, in two nested archives say, is only handed on once
+    private final Set<String> claimed = new HashSet<String>();
+
+    // The earliest root still being read, whose classes need not be held
+    private int first = 0;
+
+    // Roots which have finished, and the classes held for each
+    private final boolean[] finished = new boolean[roots.size()];
+    private final List<List<Held>> held = new ArrayList<List<Held>>();
+    private long heldBytes = 0;
+
+    // Set once any root fails, releasing those waiting on it
+    private boolean failed = false;
+
+    Scan(ClassFileVisitor visitor) {
+      this.visitor = visitor;
+      this.shadowed = visitor instanceof ShadowedClassFileVisitor
+          ? (ShadowedClassFileVisitor) visitor : null;
+      for (int i = 0; i < roots.size(); i++) {
+        held.add(new ArrayList<Held>());
+      }
+    }
+
+    synchronized boolean wantsPackage(String packagePath) {
+      return visitor.wantsPackage(packagePath);
+    }
+
+    synchronized boolean wantsClassFile(String resourceName) {
+      return (shadowed != null || !claimed.contains(resourceName))
+          && visitor.wantsClassFile(resourceName);
+    }
+
+    /**
+     * Takes in a class found by a root, or a copy shadowed within the root
+     * if it is made of several roots itself.
+     */
+    synchronized void visitClassFile(int index, String resourceName,
+        byte[] bytes, boolean isShadowed) {
+      while (index != first
+          && heldBytes + bytes.length > MAX_HELD_BYTES) {
+        if (failed) {
+          throw new CancellationException("another root failed");
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CancellationException("interrupted");
+        }
+      }
+      if (index == first) {
+        handOn(resourceName, bytes, isShadowed);
+      } else {
+        held.get(index).add(new Held(resourceName, bytes, isShadowed));
+        heldBytes += bytes.length;
+      }
+    }
+
+    /**
+     * Marks a root as done, handing on the classes held for the roots which
+     * no longer have an earlier one to wait for.
+     */
+    synchronized void finish(int index, boolean succeeded) {
+      if (!succeeded) {
+        failed = true;
+      } else {
+        finished[index] = true;
+        while (first < finished.length && finished[first]) {
+          first++;
+          if (first < finished.length) {
+            for (Held h : held.get(first)) {
+              heldBytes -= h.bytes.length;
+              handOn(h.resourceName, h.bytes, h.isShadowed);
+            }
+            held.get(first).clear();
+          }
+        }
+      }
+      notifyAll();
+    }
+
+    private void handOn(String resourceName, byte[] bytes,
+        boolean isShadowed) {
+      if (!isShadowed && claimed.add(resourceName)) {
+        visitor.visitClassFile(resourceName, bytes);
+      } else if (shadowed != null) {
+        shadowed.visitShadowedClassFile(resourceName, bytes);
+      }
+    }
+  }
+
+  private static class Held {
+    final String resourceName;
+    final byte[] bytes;
+    final boolean isShadowed;
+
+    Held(String resourceName, byte[] bytes, boolean isShadowed) {
+      this.resourceName = resourceName;
+      this.bytes = bytes;
+      this.isShadowed = isShadowed;
+    }
+  }
+
+  /**
+   * Closes every root, even if closing one of them fails.
+   */
+  public void close() throws IOException {
+    IOException failure = null;
+    for (ClasspathRoot root : roots) {
+      try {
+        root.close();
+      } catch (IOException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private interface RootTask {
+    void run(int index, ClasspathRoot root) throws IOException;
+  }
+
+  private void forEachRoot(final RootTask task) throws IOException {
+    ExecutorService executor = threadPerRoot
+        ? VirtualThreads.newThreadPerTaskExecutor()
+        : Executors.newFixedThreadPool(parallelism);
+    final Semaphore running =
+        new Semaphore(threadPerRoot ? maxRunning : roots.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < roots.size(); i++) {
+        final int index = i;
+        running.acquire();
+        futures.add(executor.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            try {
+              task.run(index, roots.get(index));
+            } finally {
+              running.release();
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return roots.toString();
+  }
+
+}
@@ -16,10 +16,16 @@
 package com.google.singletondetector.classpath;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -28,8 +34,20 @@ public class DirectoryClasspathRoot implements ClasspathRoot {
   private URLClassLoader classloader;
   private URL url;
 
+  // How the archives found inside the directory are read
+  private ReadOptions options;
+
   public DirectoryClasspathRoot(URL url) {
+    this(url, new ReadOptions());
+  }
+
+  public DirectoryClasspathRoot(URL url, ModuleFilter filter) {
+    this(url, new ReadOptions().withModules(filter));
+  }
+
+  public DirectoryClasspathRoot(URL url, ReadOptions options) {
     this.url = url;
+    this.options = options;
     classloader = new URLClassLoader(new URL[] {url}, null);
   }
 
@@ -50,6 +68,49 @@ public class DirectoryClasspathRoot implements ClasspathRoot {
     return resources;
   }
 
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    Path root;
+    try {
+      root = Paths.get(url.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+
+    // The packages of the directory are read as many at once as the roots
+    // of a list are
+    DirectoryWalker walker = new DirectoryWalker(
+        Collections.singletonList(root), visitor,
+        Math.max(1, options.getReaders()), options.threadPerTask());
+    List<Path> found = walker.walk();
+
+    // Archives inside the directory, such as the jmods of a JDK, are read
+    // once the walk is complete, several at once
+    List<ClasspathRoot> archives = new ArrayList<ClasspathRoot>();
+    try {
+      for (Path archive : found) {
+        ClasspathRoot archiveRoot =
+            ClasspathRoots.forArchive(archive.toUri().toURL(), options);
+        if (archiveRoot != null) {
+          archives.add(archiveRoot);
+        }
+      }
+    } catch (IOException e) {
+      // Let go of the archives opened so far
+      new CompositeClasspathRoot(archives, options).close();
+      throw e;
+    }
+    ClasspathRoot archiveRoots = new CompositeClasspathRoot(archives, options);
+    try {
+      archiveRoots.accept(visitor);
+    } finally {
+      archiveRoots.close();
+    }
+  }
+
+  public void close() throws IOException {
+    classloader.close();
+  }
+
   @Override
   public String toString() {
     String url = this.url.toString();
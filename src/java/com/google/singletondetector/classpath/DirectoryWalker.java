@@ -0,0 +1,262 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Walks classes directories in parallel, one fork/join task per package,
+ * reading each class file as soon as it is found and handing it to a
+ * ClassFileVisitor. Packages the visitor does not want are never listed.
+ * Calls to the visitor are serialised, so it does not need to be thread
+ * safe. Archives found along the way are collected and returned to the
+ * caller rather than opened, sorted by path so that which of two archives
+ * holding the same class comes first does not depend on the walk's timing.
+ * When asked for a thread per task on a JVM which has virtual threads, each
+ * package is walked on a virtual thread instead, so that packages waiting on
+ * the disk do not hold up the others.
+ */
+public class DirectoryWalker {
+  private final List<Path> roots;
+  private final ClassFileVisitor visitor;
+  private final int parallelism;
+  private final boolean threadPerTask;
+
+  // Guards the visitor, which is called from every worker thread
+  private final Object lock = new Object();
+
+  private final List<Path> archives =
+      Collections.synchronizedList(new ArrayList<Path>());
+
+  public DirectoryWalker(Path root, ClassFileVisitor visitor) {
+    this(Collections.singletonList(root), visitor);
+  }
+
+  /**
+   * Walks several roots, such as the modules of a runtime image, together in
+   * one pool. Resource names are relative to the root they are found in.
+   */
+  public DirectoryWalker(List<Path> roots, ClassFileVisitor visitor) {
+    this(roots, visitor, Runtime.getRuntime().availableProcessors());
+  }
+
+  public DirectoryWalker(List<Path> roots, ClassFileVisitor visitor,
+      int parallelism) {
+    this(roots, visitor, parallelism, false);
+  }
+
+  /**
+   * Walks several roots with the given parallelism, or with a virtual thread
+   * per package if threadPerTask is set and the JVM has them.
+   */
+  public DirectoryWalker(List<Path> roots, ClassFileVisitor visitor,
+      int parallelism, boolean threadPerTask) {
+    this.roots = roots;
+    this.visitor = visitor;
+    this.parallelism = parallelism;
+    this.threadPerTask = threadPerTask;
+  }
+
+  /**
+   * Walks the whole tree, returning the archives found inside it, in path
+   * order, once every class file has been visited.
+   */
+  public List<Path> walk() throws IOException {
+    if (threadPerTask && VirtualThreads.isAvailable()) {
+      walkOnVirtualThreads();
+    } else {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new WalkRootsTask());
+      } catch (WalkException e) {
+        throw e.getCause();
+      } finally {
+        pool.shutdown();
+      }
+    }
+    List<Path> sorted = new ArrayList<Path>(archives);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  /**
+   * Walks every package on a virtual thread of its own, returning once the
+   * last of them has finished.
+   */
+  private void walkOnVirtualThreads() throws IOException {
+    if (roots.isEmpty()) {
+      return;
+    }
+    final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+    final AtomicInteger pending = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicReference<RuntimeException> failure =
+        new AtomicReference<RuntimeException>();
+
+    class PackageTask implements Runnable {
+      private final WalkTask walk;
+
+      PackageTask(WalkTask walk) {
+        this.walk = walk;
+        pending.incrementAndGet();
+      }
+
+      public void run() {
+        try {
+          if (failure.get() == null) {
+            for (WalkTask subpackage : walk.listPackage()) {
+              executor.execute(new PackageTask(subpackage));
+            }
+          }
+        } catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          if (pending.decrementAndGet() == 0) {
+            done.countDown();
+          }
+        }
+      }
+    }
+
+    try {
+      List<PackageTask> tasks = new ArrayList<PackageTask>();
+      for (Path root : roots) {
+        tasks.add(new PackageTask(new WalkTask(root, "")));
+      }
+      for (PackageTask task : tasks) {
+        executor.execute(task);
+      }
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } finally {
+      executor.shutdown();
+    }
+    if (failure.get() instanceof WalkException) {
+      throw ((WalkException) failure.get()).getCause();
+    } else if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  private class WalkRootsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void compute() {
+      List<WalkTask> tasks = new ArrayList<WalkTask>();
+      for (Path root : roots) {
+        tasks.add(new WalkTask(root, ""));
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  private class WalkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final String packageName;
+
+    WalkTask(Path dir, String packageName) {
+      this.dir = dir;
+      this.packageName = packageName;
+    }
+
+    @Override
+    protected void compute() {
+      invokeAll(listPackage());
+    }
+
+    /**
+     * Visits the classes of this package, returning its sub-packages.
+     */
+    List<WalkTask> listPackage() {
+      List<WalkTask> subpackages = new ArrayList<WalkTask>();
+      try {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+        try {
+          for (Path file : stream) {
+            String name = ClasspathRoots.fileName(file);
+            if (name.endsWith(".class")) {
+              visit(file, packageName + name);
+            } else if (ClasspathRoots.isArchive(name)) {
+              archives.add(file);
+            } else if (Files.isDirectory(file)) {
+              String subpackage = packageName + name + "/";
+              if (wantsPackage(subpackage)) {
+                subpackages.add(new WalkTask(file, subpackage));
+              }
+            }
+          }
+        } finally {
+          stream.close();
+        }
+      } catch (IOException e) {
+        throw new WalkException(e);
+      }
+      return subpackages;
+    }
+
+    private boolean wantsPackage(String packagePath) {
+      synchronized (lock) {
+        return visitor.wantsPackage(packagePath);
+      }
+    }
+
+    private void visit(Path file, String resourceName) throws IOException {
+      boolean wanted;
+      synchronized (lock) {
+        wanted = visitor.wantsClassFile(resourceName);
+      }
+      if (wanted) {
+        byte[] bytes = Files.readAllBytes(file);
+        synchronized (lock) {
+          visitor.visitClassFile(resourceName, bytes);
+        }
+      }
+    }
+  }
+
+  /**
+   * Carries an IOException out of a fork/join task.
+   */
+  private static class WalkException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    WalkException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
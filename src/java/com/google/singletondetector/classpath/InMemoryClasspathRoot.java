@@ -0,0 +1,140 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A classpath held in memory as resource names, such as
+ * "com/acme/Foo.class", mapped to their bytes. Lets a build tool which
+ * already has class files in hand, from a compiler or a bytecode transformer
+ * say, have them analysed without writing them to disk. A heap buffer
+ * spanning its whole array is handed on without a copy. Any other buffer,
+ * a direct one or a heap buffer over only part of its array, is copied one
+ * class at a time as it is read. Resources may be added until the root is
+ * scanned; it is not safe to add them while a scan is running.
+ */
+public class InMemoryClasspathRoot implements ClasspathRoot {
+
+  private final Map<String, ByteBuffer> resources =
+      new LinkedHashMap<String, ByteBuffer>();
+
+  private PackageIndex packageIndex;
+
+  public InMemoryClasspathRoot() {
+  }
+
+  public InMemoryClasspathRoot(Map<String, ByteBuffer> resources) {
+    for (Map.Entry<String, ByteBuffer> entry : resources.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Adds a resource, whose bytes are those between the buffer's position and
+   * its limit. The buffer itself is not modified.
+   */
+  public synchronized void put(String resourceName, ByteBuffer bytes) {
+    resources.put(resourceName, bytes.slice());
+    packageIndex = null;
+  }
+
+  public void put(String resourceName, byte[] bytes) {
+    put(resourceName, ByteBuffer.wrap(bytes));
+  }
+
+  public synchronized InputStream getResourceAsStream(String resourceName) {
+    ByteBuffer bytes = resources.get(resourceName);
+    return bytes == null ? null : new ByteBufferInputStream(bytes.duplicate());
+  }
+
+  public synchronized Collection<String> getResources(String packageName) {
+    if (packageIndex == null) {
+      packageIndex = new PackageIndex();
+      for (String resourceName : resources.keySet()) {
+        packageIndex.add(resourceName);
+      }
+    }
+    return packageIndex.get(packageName);
+  }
+
+  public synchronized void accept(ClassFileVisitor visitor) {
+    for (Map.Entry<String, ByteBuffer> entry : resources.entrySet()) {
+      String resourceName = entry.getKey();
+      if (resourceName.endsWith(".class")
+          && visitor.wantsClassFile(resourceName)) {
+        visitor.visitClassFile(resourceName, toArray(entry.getValue()));
+      }
+    }
+  }
+
+  /**
+   * Does nothing, as the buffers belong to the caller.
+   */
+  public void close() {
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0
+        && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Reads a buffer without copying it.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "memory";
+  }
+
+}
@@ -20,51 +20,146 @@ import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 public class JarClasspathRoot implements ClasspathRoot {
 
   private URLClassLoader classloader;
   private URL url;
-  private Map<String, Set<String>> resourceNamesByPackage =
-      new HashMap<String, Set<String>>();
+  private PackageIndex packageIndex = new PackageIndex();
+
+  // The release read from a multi-release jar
+  private int release;
 
   public JarClasspathRoot(URL url) {
+    this(url, MultiRelease.runtimeRelease());
+  }
+
+  public JarClasspathRoot(URL url, int release) {
     this.url = url;
+    this.release = release;
     classloader = new URLClassLoader(new URL[] {url}, null);
     preloadNamesFromJar();
   }
 
+  /**
+   * Finds a resource by its name in the jar or, like ZipArchive, by the name
+   * a classloader would use for a class under WEB-INF/classes/ or
+   * BOOT-INF/classes/.
+   */
   public InputStream getResourceAsStream(String resourceName) {
-    return classloader.getResourceAsStream(resourceName);
+    InputStream is = classloader.getResourceAsStream(resourceName);
+    for (String directory : ZipArchive.CLASS_DIRECTORIES) {
+      if (is != null) {
+        break;
+      }
+      is = classloader.getResourceAsStream(directory + resourceName);
+    }
+    return is;
   }
 
   public Collection<String> getResources(String packageName) {
-    if (packageName.endsWith("/")) {
-      packageName = packageName.substring(0, packageName.length() - 1);
-    }
-    Set<String> resources = resourceNamesByPackage.get(packageName);
-    return resources == null ? new HashSet<String>() : resources;
+    return packageIndex.get(packageName);
   }
 
   public void preloadNamesFromJar() {
-    Enumeration<JarEntry> enumeration = jarFileForUrl().entries();
+    JarFile jarFile = jarFileForUrl();
+    try {
+      Enumeration<JarEntry> enumeration = jarFile.entries();
+      while (enumeration.hasMoreElements()) {
+        packageIndex.add(enumeration.nextElement().getName());
+      }
+    } finally {
+      try {
+        jarFile.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Visits each class once; in a multi-release jar, from its variant for the
+   * target release. As with ZipArchive, classes under WEB-INF/classes/ and
+   * BOOT-INF/classes/ are reported by the name a classloader would use.
+   */
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    JarFile jarFile = jarFileForUrl();
+    try {
+      Map<String, JarEntry> versioned = getVersionedEntries(jarFile);
+      Enumeration<JarEntry> enumeration = jarFile.entries();
+      while (enumeration.hasMoreElements()) {
+        JarEntry entry = enumeration.nextElement();
+        String name = entry.getName();
+        if (name.startsWith(MultiRelease.VERSIONS)) {
+          // Only a variant with no base entry is visited here
+          String baseName = MultiRelease.baseName(name);
+          JarEntry chosen = versioned.get(baseName);
+          if (chosen == null || !chosen.getName().equals(name)
+              || jarFile.getEntry(baseName) != null) {
+            continue;
+          }
+          name = baseName;
+        } else if (versioned.containsKey(name)) {
+          entry = versioned.get(name);
+        }
+        String resourceName = ZipArchive.classResourceName(name);
+        if (name.endsWith(".class") && visitor.wantsClassFile(resourceName)) {
+          visitor.visitClassFile(resourceName,
+              Streams.readFully(jarFile.getInputStream(entry)));
+        } else if (ZipArchive.isArchive(name)) {
+          byte[] bytes = Streams.readFully(jarFile.getInputStream(entry));
+          ZipArchive archive =
+              new ZipArchive(url + "!/" + name, ByteBuffer.wrap(bytes));
+          ClasspathRoot nested =
+              new NestedArchiveClasspathRoot(archive, release);
+          try {
+            nested.accept(visitor);
+          } finally {
+            nested.close();
+          }
+        }
+      }
+    } finally {
+      jarFile.close();
+    }
+  }
+
+  public void close() throws IOException {
+    classloader.close();
+  }
+
+  private Map<String, JarEntry> getVersionedEntries(JarFile jarFile)
+      throws IOException {
+    Map<String, JarEntry> chosen = new HashMap<String, JarEntry>();
+    Manifest manifest = jarFile.getManifest();
+    if (manifest == null || !"true".equalsIgnoreCase(
+        manifest.getMainAttributes().getValue("Multi-Release"))) {
+      return chosen;
+    }
+    Map<String, Integer> versions = new HashMap<String, Integer>();
+    Enumeration<JarEntry> enumeration = jarFile.entries();
     while (enumeration.hasMoreElements()) {
       JarEntry entry = enumeration.nextElement();
-      String path = entry.getName();
-      int index = Math.max(0, path.lastIndexOf('/'));
-      String location = path.substring(0, index);
-      String name = path.substring(index);
-      name = name.replace("/", "");
-      addName(location, name);
+      int version = MultiRelease.version(entry.getName());
+      if (version > 0 && version <= release
+          && entry.getName().endsWith(".class")) {
+        String baseName = MultiRelease.baseName(entry.getName());
+        Integer best = versions.get(baseName);
+        if (best == null || best < version) {
+          versions.put(baseName, version);
+          chosen.put(baseName, entry);
+        }
+      }
     }
+    return chosen;
   }
 
   private JarFile jarFileForUrl() {
@@ -77,25 +172,6 @@ public class JarClasspathRoot implements ClasspathRoot {
     }
   }
 
-  private void addName(String location, String name) {
-    int slash = location.lastIndexOf("/");
-    if (slash >= 0) {
-      String child = location.substring(slash + 1);
-      String parent = location.substring(0, slash);
-      addName(parent, child);
-    } else if (!location.equals("")) {
-      addName("", location);
-    }
-    Set<String> names = resourceNamesByPackage.get(location);
-    if (names == null) {
-      names = new HashSet<String>();
-      resourceNamesByPackage.put(location, names);
-    }
-    if (!name.equals("")) {
-      names.add(name);
-    }
-  }
-
   @Override
   public String toString() {
     String url = this.url.toString();
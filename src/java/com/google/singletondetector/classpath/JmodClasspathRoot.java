@@ -0,0 +1,126 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+
+/**
+ * A .jmod file, which is a four byte "JM" header followed by a zip archive
+ * whose classes live under classes/. The archive is memory mapped and read
+ * like a jar, through an ArchivePool; classes are reported without the
+ * classes/ directory.
+ */
+public class JmodClasspathRoot implements ClasspathRoot {
+  private static final String CLASSES = "classes/";
+  private static final int HEADER_LENGTH = 4;
+
+  private URL url;
+
+  private ArchivePool pool;
+
+  public JmodClasspathRoot(URL url) throws IOException {
+    this(url, ArchivePool.getShared());
+  }
+
+  public JmodClasspathRoot(URL url, ArchivePool pool) throws IOException {
+    this.url = url;
+    this.pool = pool;
+    byte[] header = new byte[HEADER_LENGTH];
+    DataInputStream in = new DataInputStream(url.openStream());
+    try {
+      in.readFully(header);
+    } catch (EOFException e) {
+      header[0] = 0;
+    } finally {
+      in.close();
+    }
+    if (header[0] != 'J' || header[1] != 'M') {
+      throw new IOException(url + " is not a jmod file");
+    }
+    pool.release(pool.acquire(url, HEADER_LENGTH));
+  }
+
+  /**
+   * Returns the name of the module in a jmod file, which is its file name
+   * without the .jmod extension.
+   */
+  public static String moduleName(String fileName) {
+    String name = fileName.substring(fileName.lastIndexOf('/') + 1);
+    return name.endsWith(".jmod") ? name.substring(0, name.length() - 5)
+        : name;
+  }
+
+  public InputStream getResourceAsStream(String resourceName) {
+    ZipArchive archive = acquire();
+    try {
+      byte[] bytes = archive.getResourceBytes(CLASSES + resourceName);
+      return bytes == null ? null : new ByteArrayInputStream(bytes);
+    } finally {
+      pool.release(archive);
+    }
+  }
+
+  public Collection<String> getResources(String packageName) {
+    ZipArchive archive = acquire();
+    try {
+      return archive.getPackageIndex().get(CLASSES + packageName);
+    } finally {
+      pool.release(archive);
+    }
+  }
+
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    ZipArchive archive = pool.acquire(url, HEADER_LENGTH);
+    try {
+      for (int i = 0; i < archive.size(); i++) {
+        String name = archive.getName(i);
+        if (name.startsWith(CLASSES) && name.endsWith(".class")) {
+          String resourceName = name.substring(CLASSES.length());
+          if (visitor.wantsClassFile(resourceName)) {
+            visitor.visitClassFile(resourceName, archive.read(i));
+          }
+        }
+      }
+    } finally {
+      pool.release(archive);
+    }
+  }
+
+  public void close() {
+    pool.evict(url, HEADER_LENGTH);
+  }
+
+  private ZipArchive acquire() {
+    try {
+      return pool.acquire(url, HEADER_LENGTH);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    String url = this.url.toString();
+    return url.substring(url.lastIndexOf('/') + 1);
+  }
+
+}
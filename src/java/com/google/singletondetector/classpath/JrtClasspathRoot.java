@@ -0,0 +1,167 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The classes of a Java runtime image, read through the jrt:/ filesystem.
+ * This is either the running JVM's own image or one made by jlink. Modules
+ * rejected by the ModuleFilter are never listed or read; the rest are walked
+ * in parallel.
+ */
+public class JrtClasspathRoot implements ClasspathRoot {
+  private static final URI JRT = URI.create("jrt:/");
+
+  private final String image;
+  private final ModuleFilter filter;
+  private final boolean threadPerTask;
+  private final FileSystem fileSystem;
+
+  // The modules passing the filter, each as its /modules/<name> directory
+  private List<Path> modules;
+
+  /**
+   * Opens the running JVM's image.
+   */
+  public JrtClasspathRoot(ModuleFilter filter) throws IOException {
+    this(null, filter);
+  }
+
+  /**
+   * Opens the image installed at javaHome, such as a jlink output directory,
+   * or the running JVM's image if javaHome is null.
+   */
+  public JrtClasspathRoot(String javaHome, ModuleFilter filter)
+      throws IOException {
+    this(javaHome, new ReadOptions().withModules(filter));
+  }
+
+  /**
+   * Opens an image as above, reading the modules and walking them as the
+   * options say.
+   */
+  public JrtClasspathRoot(String javaHome, ReadOptions options)
+      throws IOException {
+    this.image = javaHome;
+    this.filter = options.getModules();
+    this.threadPerTask = options.threadPerTask();
+    try {
+      if (javaHome == null) {
+        fileSystem = FileSystems.getFileSystem(JRT);
+      } else {
+        Map<String, String> env = Collections.singletonMap("java.home", javaHome);
+        fileSystem = FileSystems.newFileSystem(JRT, env);
+      }
+    } catch (RuntimeException e) {
+      // Thrown as ProviderNotFoundException before Java 9
+      throw new IOException("no jrt:/ filesystem for "
+          + (javaHome == null ? "this JVM" : javaHome), e);
+    }
+  }
+
+  public InputStream getResourceAsStream(String resourceName) {
+    try {
+      for (Path module : getModules()) {
+        Path file = module.resolve(resourceName);
+        if (Files.isRegularFile(file)) {
+          return Files.newInputStream(file);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return null;
+  }
+
+  public Collection<String> getResources(String packageName) {
+    Set<String> resources = new HashSet<String>();
+    try {
+      for (Path module : getModules()) {
+        Path dir = module.resolve(packageName);
+        if (Files.isDirectory(dir)) {
+          DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+          try {
+            for (Path file : stream) {
+              resources.add(ClasspathRoots.fileName(file));
+            }
+          } finally {
+            stream.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return resources;
+  }
+
+  /**
+   * Walks every accepted module in one parallel walk.
+   */
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    new DirectoryWalker(getModules(), visitor,
+        Runtime.getRuntime().availableProcessors(), threadPerTask).walk();
+  }
+
+  /**
+   * Closes the filesystem if it was opened for another image. The running
+   * JVM's own filesystem cannot be closed.
+   */
+  public void close() throws IOException {
+    if (image != null) {
+      fileSystem.close();
+    }
+  }
+
+  private synchronized List<Path> getModules() throws IOException {
+    if (modules == null) {
+      modules = new ArrayList<Path>();
+      DirectoryStream<Path> stream =
+          Files.newDirectoryStream(fileSystem.getPath("/modules"));
+      try {
+        for (Path module : stream) {
+          if (filter.accepts(ClasspathRoots.fileName(module))) {
+            modules.add(module);
+          }
+        }
+      } finally {
+        stream.close();
+      }
+    }
+    return modules;
+  }
+
+  @Override
+  public String toString() {
+    return image == null ? JRT.toString() : image;
+  }
+
+}
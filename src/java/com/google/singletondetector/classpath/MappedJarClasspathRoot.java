@@ -0,0 +1,119 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+
+/**
+ * A jar (or any zip archive) on the classpath, read by memory mapping the file
+ * and parsing its central directory once. Entries are inflated straight out of
+ * the mapped region, avoiding a JarFile and a classloader lookup per class.
+ * Archives nested inside it are scanned in place. The open archive is held in
+ * an ArchivePool, which may close it between uses when many jars are open.
+ */
+public class MappedJarClasspathRoot implements ClasspathRoot {
+
+  private URL url;
+
+  private ArchivePool pool;
+
+  // The release read from a multi-release jar
+  private int release;
+
+  public MappedJarClasspathRoot(URL url) throws IOException {
+    this(url, ArchivePool.getShared());
+  }
+
+  public MappedJarClasspathRoot(URL url, ArchivePool pool) throws IOException {
+    this(url, pool, MultiRelease.runtimeRelease());
+  }
+
+  public MappedJarClasspathRoot(URL url, ArchivePool pool, int release)
+      throws IOException {
+    this.url = url;
+    this.pool = pool;
+    this.release = release;
+    // Opening it once fails early on anything which is not a zip archive
+    pool.release(pool.acquire(url, 0));
+  }
+
+  public InputStream getResourceAsStream(String resourceName) {
+    byte[] bytes = getResourceBytes(resourceName);
+    return bytes == null ? null : new ByteArrayInputStream(bytes);
+  }
+
+  public Collection<String> getResources(String packageName) {
+    ZipArchive archive = acquire();
+    try {
+      return archive.getPackageIndex().get(packageName);
+    } finally {
+      pool.release(archive);
+    }
+  }
+
+  /**
+   * Returns the uncompressed contents of an entry, or null if the archive does
+   * not contain it.
+   */
+  public byte[] getResourceBytes(String resourceName) {
+    ZipArchive archive = acquire();
+    try {
+      return archive.getResourceBytes(resourceName, release);
+    } finally {
+      pool.release(archive);
+    }
+  }
+
+  /**
+   * Visits the class entries in central directory order, which is usually
+   * the order they are stored in, giving a sequential pass over the mapping.
+   */
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    ZipArchive archive = pool.acquire(url, 0);
+    try {
+      archive.accept(visitor, release);
+    } finally {
+      pool.release(archive);
+    }
+  }
+
+  public void close() {
+    pool.evict(url, 0);
+  }
+
+  private ZipArchive acquire() {
+    try {
+      return pool.acquire(url, 0);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    String url = this.url.toString();
+    if (url.endsWith("/")) {
+      url = url.substring(0, url.length() - 1);
+    }
+    int index = Math.max(0, url.lastIndexOf('/') + 1);
+    return url.substring(index);
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases memory mapped files, such as archives and the chunks of the
+ * off-heap model, without waiting for the garbage collector.
+ */
+public class Mappings {
+  // sun.misc.Unsafe and its invokeCleaner(ByteBuffer), found by reflection
+  // from Java 9 on, or nulls before it
+  private static final Object UNSAFE = findUnsafe();
+  private static final Method INVOKE_CLEANER = findInvokeCleaner(UNSAFE);
+
+  private Mappings() {
+  }
+
+  /**
+   * Unmaps a mapped buffer at once, rather than when it is garbage
+   * collected, through Unsafe.invokeCleaner() from Java 9 on or the buffer's
+   * cleaner before it. Should neither be reachable, the mapping is left to
+   * the collector. The buffer, and any slice or view of it, must not be used
+   * afterwards.
+   */
+  public static void unmap(ByteBuffer buffer) {
+    if (!buffer.isDirect()) {
+      return;
+    }
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else {
+        Method cleaner = buffer.getClass().getMethod("cleaner");
+        cleaner.setAccessible(true);
+        Object clean = cleaner.invoke(buffer);
+        if (clean != null) {
+          clean.getClass().getMethod("clean").invoke(clean);
+        }
+      }
+    } catch (Exception e) {
+      // Left to the garbage collector
+    }
+  }
+
+  private static Object findUnsafe() {
+    try {
+      Field field = Class.forName("sun.misc.Unsafe").getDeclaredField(
+          "theUnsafe");
+      field.setAccessible(true);
+      return field.get(null);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static Method findInvokeCleaner(Object unsafe) {
+    if (unsafe == null) {
+      return null;
+    }
+    try {
+      return unsafe.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
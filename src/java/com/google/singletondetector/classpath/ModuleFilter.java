@@ -0,0 +1,62 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Chooses which modules of a runtime image or which jmod files are scanned.
+ * Patterns are module names, optionally ending in '*' to match every module
+ * starting with what precedes it, such as "jdk.*". A module is scanned if it
+ * matches an include (or there are none) and matches no exclude.
+ */
+public class ModuleFilter {
+  // A filter which lets every module through
+  public static final ModuleFilter ALL = new ModuleFilter();
+
+  private final List<String> includes = new ArrayList<String>();
+  private final List<String> excludes = new ArrayList<String>();
+
+  public ModuleFilter() {
+  }
+
+  public ModuleFilter(Collection<String> includes, Collection<String> excludes) {
+    this.includes.addAll(includes);
+    this.excludes.addAll(excludes);
+  }
+
+  public boolean accepts(String module) {
+    if (!includes.isEmpty() && !matchesAny(includes, module)) {
+      return false;
+    }
+    return !matchesAny(excludes, module);
+  }
+
+  private static boolean matchesAny(List<String> patterns, String module) {
+    for (String pattern : patterns) {
+      if (pattern.endsWith("*")) {
+        if (module.startsWith(pattern.substring(0, pattern.length() - 1))) {
+          return true;
+        }
+      } else if (pattern.equals(module)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.nio.charset.Charset;
+
+/**
+ * Resolves the classes of multi-release jars, which keep variants of a class
+ * for later Java releases under META-INF/versions/<release>/. Like the JVM,
+ * the archive roots read each class once, from the highest version no later
+ * than the target release, and ignore versioned entries of jars whose
+ * manifest does not declare them multi-release. Each root is given its
+ * target release through its ReadOptions, which default to the release of
+ * the running JVM.
+ */
+public class MultiRelease {
+  public static final String VERSIONS = "META-INF/versions/";
+
+  public static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+  private MultiRelease() {
+  }
+
+  /**
+   * Returns the feature release of the running JVM, such as 8 or 17.
+   */
+  public static int runtimeRelease() {
+    String version = System.getProperty("java.specification.version", "1.8");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    try {
+      return Integer.parseInt(version);
+    } catch (NumberFormatException e) {
+      return 8;
+    }
+  }
+
+  /**
+   * Returns the release an entry name is versioned for, or 0 if it is not
+   * under META-INF/versions/ or names no valid release.
+   */
+  static int version(String name) {
+    if (!name.startsWith(VERSIONS)) {
+      return 0;
+    }
+    int slash = name.indexOf('/', VERSIONS.length());
+    if (slash < 0) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(name.substring(VERSIONS.length(), slash));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Strips META-INF/versions/<release>/ from a versioned entry name.
+   */
+  static String baseName(String name) {
+    return name.substring(name.indexOf('/', VERSIONS.length()) + 1);
+  }
+
+  /**
+   * Returns whether a manifest declares "Multi-Release: true".
+   */
+  static boolean isMultiRelease(byte[] manifest) {
+    if (manifest == null) {
+      return false;
+    }
+    for (String line : new String(manifest, Charset.forName("UTF-8"))
+        .split("\r?\n|\r")) {
+      int colon = line.indexOf(':');
+      if (colon > 0
+          && line.substring(0, colon).trim().equalsIgnoreCase("Multi-Release")) {
+        return line.substring(colon + 1).trim().equalsIgnoreCase("true");
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * An archive stored inside another archive, such as a jar under a Spring Boot
+ * application's BOOT-INF/lib/, a WAR's WEB-INF/lib/ or a module of an EAR.
+ * The inner archive is read from the outer one's buffer in memory and is
+ * never extracted to disk. Archives nested inside it are scanned in turn.
+ */
+public class NestedArchiveClasspathRoot implements ClasspathRoot {
+
+  private ZipArchive archive;
+
+  // The release read from a multi-release archive
+  private int release;
+
+  NestedArchiveClasspathRoot(ZipArchive archive, int release) {
+    this.archive = archive;
+    this.release = release;
+  }
+
+  public InputStream getResourceAsStream(String resourceName) {
+    byte[] bytes = archive.getResourceBytes(resourceName, release);
+    return bytes == null ? null : new ByteArrayInputStream(bytes);
+  }
+
+  public Collection<String> getResources(String packageName) {
+    return archive.getPackageIndex().get(packageName);
+  }
+
+  public void accept(ClassFileVisitor visitor) throws IOException {
+    archive.accept(visitor, release);
+  }
+
+  public void close() {
+    archive.close();
+  }
+
+  @Override
+  public String toString() {
+    String name = archive.toString();
+    return name.substring(name.lastIndexOf('/') + 1);
+  }
+
+}
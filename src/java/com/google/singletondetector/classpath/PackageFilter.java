@@ -0,0 +1,165 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses which packages are analysed. Patterns are package names, with
+ * either '.' or '/' between their parts, and match that package and every
+ * package beneath it; a '*' part matches any one name, so "com.*.internal"
+ * matches com.acme.internal.util. A trailing ".**" may be written for
+ * clarity and is ignored. A class is analysed if its package matches an
+ * include (or there are none) and matches no exclude.
+ * <p>
+ * The patterns are compiled into a trie of package names, so each class or
+ * directory is matched in a single walk down its path however many patterns
+ * there are. Whole directories can be ruled out before they are listed.
+ */
+public class PackageFilter {
+  // A filter which lets every package through
+  public static final PackageFilter ALL = new PackageFilter();
+
+  // Marks on a trie node, and results of a match
+  private static final int INCLUDE = 1;
+  private static final int EXCLUDE = 2;
+  // Some pattern could still include a package further down
+  private static final int OPEN = 4;
+
+  private static class Node {
+    final Map<String, Node> children = new HashMap<String, Node>();
+    Node any;
+    int marks;
+    boolean includesBelow;
+
+    Node child(String name) {
+      if (name.equals("*")) {
+        if (any == null) {
+          any = new Node();
+        }
+        return any;
+      }
+      Node child = children.get(name);
+      if (child == null) {
+        child = new Node();
+        children.put(name, child);
+      }
+      return child;
+    }
+  }
+
+  private final Node root = new Node();
+  private boolean hasIncludes = false;
+
+  public PackageFilter() {
+  }
+
+  public PackageFilter(Collection<String> includes, Collection<String> excludes) {
+    for (String include : includes) {
+      add(include, INCLUDE);
+      hasIncludes = true;
+    }
+    for (String exclude : excludes) {
+      add(exclude, EXCLUDE);
+    }
+  }
+
+  /**
+   * Returns whether a class should be read, given its resource name such as
+   * "com/acme/Foo.class".
+   */
+  public boolean acceptsClass(String resourceName) {
+    int result = match(resourceName, resourceName.lastIndexOf('/'));
+    if ((result & EXCLUDE) != 0) {
+      return false;
+    }
+    return !hasIncludes || (result & INCLUDE) != 0;
+  }
+
+  /**
+   * Returns whether any class in a package or beneath it could be read,
+   * given a path such as "com/acme/". A directory which fails this need not
+   * be listed at all.
+   */
+  public boolean acceptsPackage(String packagePath) {
+    int end = packagePath.endsWith("/") ? packagePath.length() - 1
+        : packagePath.length();
+    int result = match(packagePath, end);
+    if ((result & EXCLUDE) != 0) {
+      return false;
+    }
+    return !hasIncludes || (result & (INCLUDE | OPEN)) != 0;
+  }
+
+  private void add(String pattern, int mark) {
+    pattern = pattern.replace('.', '/');
+    if (pattern.endsWith("/**")) {
+      pattern = pattern.substring(0, pattern.length() - 3);
+    }
+    Node node = root;
+    for (String name : pattern.split("/")) {
+      if (name.length() > 0) {
+        if (mark == INCLUDE) {
+          node.includesBelow = true;
+        }
+        node = node.child(name);
+      }
+    }
+    node.marks |= mark;
+  }
+
+  /**
+   * Walks the package names in path up to end, returning the marks met on
+   * the way, plus OPEN if an include pattern reaches further down.
+   */
+  private int match(String path, int end) {
+    int result = root.marks;
+    List<Node> nodes = new ArrayList<Node>();
+    nodes.add(root);
+    int start = 0;
+    while (start < end && !nodes.isEmpty()) {
+      int slash = path.indexOf('/', start);
+      if (slash < 0 || slash > end) {
+        slash = end;
+      }
+      String name = path.substring(start, slash);
+      List<Node> next = new ArrayList<Node>(nodes.size());
+      for (Node node : nodes) {
+        Node child = node.children.get(name);
+        if (child != null) {
+          next.add(child);
+          result |= child.marks;
+        }
+        if (node.any != null) {
+          next.add(node.any);
+          result |= node.any.marks;
+        }
+      }
+      nodes = next;
+      start = slash + 1;
+    }
+    for (Node node : nodes) {
+      if (node.includesBelow) {
+        result |= OPEN;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps each package of an archive to the names of the resources and
+ * sub-packages directly inside it, so that archive roots can answer
+ * getResources() the same way a directory listing would.
+ */
+class PackageIndex {
+
+  private Map<String, Set<String>> resourceNamesByPackage =
+      new HashMap<String, Set<String>>();
+
+  /**
+   * Records a full entry path, such as "com/google/Foo.class", along with
+   * every package above it.
+   */
+  public void add(String path) {
+    int index = Math.max(0, path.lastIndexOf('/'));
+    String location = path.substring(0, index);
+    String name = path.substring(index);
+    name = name.replace("/", "");
+    addName(location, name);
+  }
+
+  public Collection<String> get(String packageName) {
+    if (packageName.endsWith("/")) {
+      packageName = packageName.substring(0, packageName.length() - 1);
+    }
+    Set<String> resources = resourceNamesByPackage.get(packageName);
+    return resources == null ? new HashSet<String>() : resources;
+  }
+
+  private void addName(String location, String name) {
+    Set<String> names = resourceNamesByPackage.get(location);
+    if (names == null) {
+      names = new HashSet<String>();
+      resourceNamesByPackage.put(location, names);
+
+      // Only a package seen for the first time needs linking to its parent
+      int slash = location.lastIndexOf("/");
+      if (slash >= 0) {
+        addName(location.substring(0, slash), location.substring(slash + 1));
+      } else if (!location.equals("")) {
+        addName("", location);
+      }
+    }
+    if (!name.equals("")) {
+      names.add(name);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+/**
+ * The settings one scan reads its classpath with: the modules read from
+ * runtime images and jmods, how many roots of a list are read at once and
+ * whether each gets a thread of its own, the release multi-release jars are
+ * read for and the pool their archives are held open in. They are handed
+ * to each root as it is made rather than kept in statics, so that scans in
+ * one JVM cannot change each other's. Instances are immutable; each with
+ * method returns a changed copy.
+ */
+public class ReadOptions {
+  // The modules of runtime images and jmods to read
+  private final ModuleFilter modules;
+
+  // The most roots of a list read at once
+  private final int readers;
+
+  // The release whose variants are read from multi-release jars
+  private final int release;
+
+  // Holds the archives of every root open
+  private final ArchivePool pool;
+
+  // Whether roots and packages are each read on a thread of their own
+  private final boolean threadPerTask;
+
+  /**
+   * Reads every module, as many roots at once as there are cores on a pool
+   * of threads, for the running JVM's release, through the shared pool.
+   */
+  public ReadOptions() {
+    this(ModuleFilter.ALL, Runtime.getRuntime().availableProcessors(),
+        MultiRelease.runtimeRelease(), ArchivePool.getShared(), false);
+  }
+
+  private ReadOptions(ModuleFilter modules, int readers, int release,
+      ArchivePool pool, boolean threadPerTask) {
+    this.modules = modules;
+    this.readers = readers;
+    this.release = release;
+    this.pool = pool;
+    this.threadPerTask = threadPerTask;
+  }
+
+  public ModuleFilter getModules() {
+    return modules;
+  }
+
+  public ReadOptions withModules(ModuleFilter modules) {
+    return new ReadOptions(modules, readers, release, pool, threadPerTask);
+  }
+
+  public int getReaders() {
+    return readers;
+  }
+
+  public ReadOptions withReaders(int readers) {
+    return new ReadOptions(modules, readers, release, pool, threadPerTask);
+  }
+
+  public int getRelease() {
+    return release;
+  }
+
+  public ReadOptions withRelease(int release) {
+    return new ReadOptions(modules, readers, release, pool, threadPerTask);
+  }
+
+  public ArchivePool getPool() {
+    return pool;
+  }
+
+  public ReadOptions withPool(ArchivePool pool) {
+    return new ReadOptions(modules, readers, release, pool, threadPerTask);
+  }
+
+  /**
+   * Returns whether roots and packages are read on a thread each, virtual
+   * where the JVM has them, rather than on a pool of one thread per core.
+   */
+  public boolean threadPerTask() {
+    return threadPerTask;
+  }
+
+  public ReadOptions withThreadPerTask(boolean threadPerTask) {
+    return new ReadOptions(modules, readers, release, pool, threadPerTask);
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+/**
+ * A ClassFileVisitor which is also shown the copies of a class that a list
+ * of roots would otherwise skip, because an earlier root, or an earlier
+ * archive of the same root, holds a class of the same name. Each such copy
+ * comes after the one that shadows it, so that it can be compared with the
+ * copy read, for instance to report the classes whose copies differ.
+ */
+public interface ShadowedClassFileVisitor extends ClassFileVisitor {
+
+  void visitShadowedClassFile(String resourceName, byte[] bytes);
+
+}
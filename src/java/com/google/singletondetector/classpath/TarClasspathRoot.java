@@ -0,0 +1,258 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A tar or tar.gz archive, such as a container image layer or the file
+ * system written by docker export, read in one forward pass without
+ * extracting anything.
+ * Class files are reported under the name read from their own bytes, since
+ * their paths in the tar need not start at a classpath root. Jars, wars and
+ * ears are read into memory as they stream by and scanned in place, and tars
+ * inside the tar are streamed in turn.
+ * <p>
+ * A file is streamed again on every call to accept(). A stream, such as
+ * standard input, can only be read once: it is streamed straight through,
+ * and any later pass, including a lookup of a resource, fails. Only if the
+ * caller says that more passes are coming does the first pass keep the
+ * archives and the classes in packages the visitor wants, for later passes
+ * to replay from memory.
+ */
+public class TarClasspathRoot implements ClasspathRoot {
+
+  private final File file;
+  private final String description;
+
+  // The release read from multi-release jars inside the tar
+  private final int release;
+
+  // The stream not yet read, when not reading a file
+  private InputStream stream;
+
+  // Whether the stream is kept for later passes, and what was kept
+  private final boolean replays;
+  private List<Entry> retained;
+
+  // Whether the stream has been read
+  private boolean read = false;
+
+  private PackageIndex packageIndex;
+
+  private static class Entry {
+    final String name;
+    final byte[] bytes;
+
+    Entry(String name, byte[] bytes) {
+      this.name = name;
+      this.bytes = bytes;
+    }
+  }
+
+  public TarClasspathRoot(File file) {
+    this(file, MultiRelease.runtimeRelease());
+  }
+
+  public TarClasspathRoot(File file, int release) {
+    this.file = file;
+    this.description = file.getName();
+    this.release = release;
+    this.replays = false;
+  }
+
+  public TarClasspathRoot(InputStream stream, String description) {
+    this(stream, description, MultiRelease.runtimeRelease(), false);
+  }
+
+  /**
+   * Reads a tar from a stream, which can be scanned more than once only if
+   * replays is set, at the cost of holding what the first scan kept until
+   * the root is closed.
+   */
+  public TarClasspathRoot(InputStream stream, String description,
+      int release, boolean replays) {
+    this.file = null;
+    this.stream = stream;
+    this.description = description;
+    this.release = release;
+    this.replays = replays;
+  }
+
+  /**
+   * Returns whether a file name is a tar or compressed tar.
+   */
+  public static boolean isTar(String name) {
+    return name.endsWith(".tar") || name.endsWith(".tar.gz")
+        || name.endsWith(".tgz");
+  }
+
+  public InputStream getResourceAsStream(final String resourceName) {
+    final byte[][] found = new byte[1][];
+    scan(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String name) {
+        return found[0] == null && name.equals(resourceName);
+      }
+
+      public void visitClassFile(String name, byte[] bytes) {
+        found[0] = bytes;
+      }
+    });
+    return found[0] == null ? null : new ByteArrayInputStream(found[0]);
+  }
+
+  public synchronized Collection<String> getResources(String packageName) {
+    if (packageIndex == null) {
+      final PackageIndex index = new PackageIndex();
+      scan(new ClassFileVisitor() {
+        public boolean wantsPackage(String packagePath) {
+          return true;
+        }
+
+        public boolean wantsClassFile(String resourceName) {
+          index.add(resourceName);
+          return false;
+        }
+
+        public void visitClassFile(String resourceName, byte[] bytes) {
+        }
+      });
+      packageIndex = index;
+    }
+    return packageIndex.get(packageName);
+  }
+
+  public synchronized void accept(ClassFileVisitor visitor) throws IOException {
+    if (file != null) {
+      InputStream in = new FileInputStream(file);
+      try {
+        accept(new TarReader(TarReader.open(in)), visitor, null);
+      } finally {
+        in.close();
+      }
+    } else if (!read) {
+      read = true;
+      List<Entry> kept = replays ? new ArrayList<Entry>() : null;
+      try {
+        accept(new TarReader(TarReader.open(stream)), visitor, kept);
+      } finally {
+        stream.close();
+        stream = null;
+      }
+      // Only a complete pass is replayed
+      retained = kept;
+    } else if (retained == null) {
+      throw new IOException(description + " can only be read once");
+    } else {
+      for (Entry entry : retained) {
+        if (entry.name.endsWith(".class")) {
+          visitClass(entry.name, entry.bytes, visitor, null);
+        } else {
+          visitArchive(entry.name, entry.bytes, visitor);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops anything kept from a stream, closing it if it was never read.
+   */
+  public synchronized void close() throws IOException {
+    retained = null;
+    if (stream != null) {
+      stream.close();
+      stream = null;
+    }
+  }
+
+  private void accept(TarReader tar, ClassFileVisitor visitor,
+      List<Entry> retained) throws IOException {
+    while (tar.next()) {
+      String name = tar.getName();
+      if (!tar.isFile()) {
+        continue;
+      }
+      if (name.endsWith(".class")) {
+        byte[] bytes = tar.read();
+        String className = ClassNames.internalName(bytes);
+        if (className != null) {
+          visitClass(className + ".class", bytes, visitor, retained);
+        }
+      } else if (ZipArchive.isArchive(name)) {
+        byte[] bytes = tar.read();
+        if (retained != null) {
+          retained.add(new Entry(name, bytes));
+        }
+        visitArchive(name, bytes, visitor);
+      } else if (isTar(name)) {
+        accept(new TarReader(TarReader.open(tar.entryStream())), visitor,
+            retained);
+      }
+    }
+  }
+
+  private void visitClass(String resourceName, byte[] bytes,
+      ClassFileVisitor visitor, List<Entry> retained) {
+    if (retained != null) {
+      String packagePath =
+          resourceName.substring(0, resourceName.lastIndexOf('/') + 1);
+      if (visitor.wantsPackage(packagePath)) {
+        retained.add(new Entry(resourceName, bytes));
+      }
+    }
+    if (visitor.wantsClassFile(resourceName)) {
+      visitor.visitClassFile(resourceName, bytes);
+    }
+  }
+
+  private void visitArchive(String name, byte[] bytes,
+      ClassFileVisitor visitor) throws IOException {
+    ClasspathRoot nested = new NestedArchiveClasspathRoot(
+        new ZipArchive(description + "!/" + name, ByteBuffer.wrap(bytes)),
+        release);
+    try {
+      nested.accept(visitor);
+    } finally {
+      nested.close();
+    }
+  }
+
+  private void scan(ClassFileVisitor visitor) {
+    try {
+      accept(visitor);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+}
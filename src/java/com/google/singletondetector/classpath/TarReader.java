@@ -0,0 +1,267 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the entries of a tar stream in one forward pass. Understands ustar
+ * name prefixes, GNU long names and pax path records, which is what the
+ * layers of container images use. The contents of an entry may be read
+ * while it is current; whatever is left unread is skipped by next().
+ */
+class TarReader {
+  private static final int BLOCK = 512;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final InputStream in;
+  private final byte[] header = new byte[BLOCK];
+
+  private String name;
+  private char type;
+  private long size;
+
+  // Bytes of the current entry not yet read, and the padding after it
+  private long remaining = 0;
+  private long padding = 0;
+
+  TarReader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Buffers a stream and, if it starts with the gzip magic number, inflates
+   * it, so that a .tar and a .tar.gz read alike.
+   */
+  static InputStream open(InputStream in) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in, 65536);
+    buffered.mark(2);
+    int first = buffered.read();
+    int second = buffered.read();
+    buffered.reset();
+    if (first == 0x1f && second == 0x8b) {
+      return new GZIPInputStream(buffered, 65536);
+    }
+    return buffered;
+  }
+
+  /**
+   * Moves to the next entry, returning false at the end of the archive.
+   */
+  boolean next() throws IOException {
+    String longName = null;
+    while (true) {
+      skip(remaining + padding);
+      remaining = 0;
+      padding = 0;
+      if (!readHeader()) {
+        return false;
+      }
+      type = (char) header[156];
+      size = readNumber(124, 12);
+      remaining = size;
+      padding = (BLOCK - size % BLOCK) % BLOCK;
+      if (type == 'L') {
+        longName = trim(new String(read(), UTF8));
+      } else if (type == 'x') {
+        String path = paxPath(read());
+        if (path != null) {
+          longName = path;
+        }
+      } else if (type == 'g') {
+        continue;
+      } else {
+        name = longName != null ? longName : headerName();
+        if (name.startsWith("./")) {
+          name = name.substring(2);
+        }
+        return true;
+      }
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  /**
+   * Returns whether the current entry is a regular file.
+   */
+  boolean isFile() {
+    return type == '0' || type == 0 || type == '7';
+  }
+
+  /**
+   * Reads the whole of the current entry.
+   */
+  byte[] read() throws IOException {
+    if (remaining > Integer.MAX_VALUE) {
+      throw new IOException(name + " is too large to read into memory");
+    }
+    byte[] bytes = new byte[(int) remaining];
+    int offset = 0;
+    while (offset < bytes.length) {
+      int n = in.read(bytes, offset, bytes.length - offset);
+      if (n < 0) {
+        throw new EOFException("tar entry " + name + " is truncated");
+      }
+      offset += n;
+    }
+    remaining = 0;
+    return bytes;
+  }
+
+  /**
+   * Returns a stream over the rest of the current entry. Closing it does
+   * not close the tar stream.
+   */
+  InputStream entryStream() {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) {
+          return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+          throw new EOFException("tar entry " + name + " is truncated");
+        }
+        remaining -= n;
+        return n;
+      }
+    };
+  }
+
+  private boolean readHeader() throws IOException {
+    int offset = 0;
+    while (offset < BLOCK) {
+      int n = in.read(header, offset, BLOCK - offset);
+      if (n < 0) {
+        return false;
+      }
+      offset += n;
+    }
+    // The archive ends with blocks of zeros
+    for (byte b : header) {
+      if (b != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String headerName() {
+    String name = readString(0, 100);
+    if (readString(257, 5).equals("ustar")) {
+      String prefix = readString(345, 155);
+      if (prefix.length() > 0) {
+        name = prefix + "/" + name;
+      }
+    }
+    return name;
+  }
+
+  private String readString(int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, UTF8);
+  }
+
+  /**
+   * Reads a numeric field, which is octal text or, for values too large for
+   * that, big-endian binary flagged by the top bit of the first byte.
+   */
+  private long readNumber(int offset, int length) {
+    long value = 0;
+    if ((header[offset] & 0x80) != 0) {
+      for (int i = offset + 1; i < offset + length; i++) {
+        value = (value << 8) | (header[i] & 0xff);
+      }
+      return value;
+    }
+    int i = offset;
+    while (i < offset + length && (header[i] == ' ' || header[i] == 0)) {
+      i++;
+    }
+    for (; i < offset + length && header[i] >= '0' && header[i] <= '7'; i++) {
+      value = (value << 3) + (header[i] - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Returns the path record of a pax extended header, if it has one.
+   * Records take the form "<length> <key>=<value>\n", where the length
+   * counts bytes.
+   */
+  private static String paxPath(byte[] records) {
+    int offset = 0;
+    while (offset < records.length) {
+      int space = offset;
+      int length = 0;
+      while (space < records.length && records[space] >= '0'
+          && records[space] <= '9') {
+        length = length * 10 + records[space++] - '0';
+      }
+      if (length == 0 || space >= records.length || records[space] != ' ') {
+        break;
+      }
+      int end = Math.min(records.length, offset + length - 1);
+      String record = new String(records, space + 1,
+          Math.max(0, end - space - 1), UTF8);
+      if (record.startsWith("path=")) {
+        return record.substring(5);
+      }
+      offset += length;
+    }
+    return null;
+  }
+
+  private static String trim(String name) {
+    int end = name.indexOf(0);
+    return end < 0 ? name : name.substring(0, end);
+  }
+
+  private void skip(long count) throws IOException {
+    while (count > 0) {
+      long n = in.skip(count);
+      if (n <= 0) {
+        if (in.read() < 0) {
+          throw new EOFException("tar stream is truncated");
+        }
+        n = 1;
+      }
+      count -= n;
+    }
+  }
+}
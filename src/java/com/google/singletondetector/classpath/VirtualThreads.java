@@ -0,0 +1,66 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts a thread per task for reading classpath roots, so that thousands of
+ * jars and directories can each wait on the disk without tying up a worker.
+ * Virtual threads are used on JVMs which have them (Java 21 and later), found
+ * by reflection as this code is built for older releases; elsewhere each task
+ * gets a platform thread. CompositeClasspathRoot and DirectoryWalker use it
+ * in place of their pools when their ReadOptions ask for a thread per task.
+ */
+public class VirtualThreads {
+  // Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21
+  private static final Method NEW_EXECUTOR = findExecutorFactory();
+
+  private VirtualThreads() {
+  }
+
+  private static Method findExecutorFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether the running JVM has virtual threads.
+   */
+  public static boolean isAvailable() {
+    return NEW_EXECUTOR != null;
+  }
+
+  /**
+   * Returns an executor which starts a new thread for each task, virtual if
+   * the JVM supports it. Callers bound how many tasks run at once.
+   */
+  public static ExecutorService newThreadPerTaskExecutor() {
+    if (NEW_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_EXECUTOR.invoke(null);
+      } catch (Exception e) {
+        // Fall through to platform threads
+      }
+    }
+    return Executors.newCachedThreadPool();
+  }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector.classpath;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A zip archive held in a ByteBuffer, which may be a file mapping or a region
+ * of an enclosing archive. The central directory is parsed once, up front,
+ * and entries are inflated straight out of the buffer on request.
+ */
+class ZipArchive implements Closeable {
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int END_HEADER = 0x06054b50;
+  private static final int ZIP64_END_HEADER = 0x06064b50;
+  private static final int ZIP64_LOCATOR = 0x07064b50;
+  private static final int ZIP64_EXTRA = 0x0001;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  // Longest possible end of central directory record, including its comment
+  private static final int MAX_END_SEARCH = 22 + 0xFFFF;
+
+  // Directories inside web and Spring Boot archives which hold classes
+  static final String[] CLASS_DIRECTORIES =
+      {"WEB-INF/classes/", "BOOT-INF/classes/"};
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // Used in error messages and by toString()
+  private final String description;
+
+  // The whole archive
+  private final ByteBuffer archive;
+
+  // Index of every entry, pointing into the arrays below
+  private Map<String, Integer> entries = new HashMap<String, Integer>();
+  private String[] names;
+  private int[] methods;
+  private int[] compressedSizes;
+  private int[] sizes;
+  private int[] localHeaderOffsets;
+
+  // Built on the first call to getPackageIndex()
+  private PackageIndex packageIndex;
+
+  // For a multi-release jar, the entry read for each class which has a
+  // variant at or below versionedRelease, keyed by its base name
+  private Map<String, Integer> versionedEntries;
+  private int versionedRelease;
+
+  // Reused for every entry inflated from this archive
+  private Inflater inflater = new Inflater(true);
+  private byte[] input = new byte[8192];
+
+  public ZipArchive(String description, ByteBuffer archive) throws IOException {
+    this.description = description;
+    this.archive = archive.slice().order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      readCentralDirectory();
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException(description + ": truncated central directory", e);
+    }
+  }
+
+  /**
+   * Returns whether a file name looks like an archive which may hold classes.
+   */
+  public static boolean isArchive(String name) {
+    return name.endsWith(".jar") || name.endsWith(".war")
+        || name.endsWith(".ear");
+  }
+
+  /**
+   * Strips the WEB-INF/classes/ or BOOT-INF/classes/ directory from an entry
+   * name, returning the name a classloader would use for it. Returns the same
+   * instance when there is nothing to strip.
+   */
+  public static String classResourceName(String name) {
+    for (String directory : CLASS_DIRECTORIES) {
+      if (name.startsWith(directory)) {
+        return name.substring(directory.length());
+      }
+    }
+    return name;
+  }
+
+  private static File fileForUrl(URL url) throws IOException {
+    try {
+      return new File(url.toURI().getPath());
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Maps the archive at a file URL read-only.
+   */
+  public static ByteBuffer map(URL url) throws IOException {
+    return map(fileForUrl(url));
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to map");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      // The mapping stays valid after the channel is closed
+      raf.close();
+    }
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  public String getName(int entry) {
+    return names[entry];
+  }
+
+  /**
+   * Returns the index of the named entry, or -1 if there is none. Classes in
+   * WEB-INF/classes/ and BOOT-INF/classes/ may also be found by the name a
+   * classloader would use.
+   */
+  public int find(String name) {
+    Integer entry = entries.get(name);
+    return entry == null ? -1 : entry;
+  }
+
+  /**
+   * Returns the uncompressed contents of the named entry, or null if the
+   * archive does not contain it.
+   */
+  public byte[] getResourceBytes(String name) {
+    return readEntry(name, find(name));
+  }
+
+  /**
+   * Returns the contents of the named entry as above. In a multi-release jar,
+   * the entry is read from the version for the target release.
+   */
+  public byte[] getResourceBytes(String name, int release) {
+    Integer versioned = getVersionedEntries(release).get(name);
+    return readEntry(name, versioned != null ? versioned : find(name));
+  }
+
+  private byte[] readEntry(String name, int entry) {
+    if (entry < 0) {
+      return null;
+    }
+    try {
+      return read(entry);
+    } catch (IOException e) {
+      throw new RuntimeException(description + ": " + name, e);
+    }
+  }
+
+  public synchronized PackageIndex getPackageIndex() {
+    if (packageIndex == null) {
+      packageIndex = new PackageIndex();
+      for (String name : names) {
+        packageIndex.add(name);
+      }
+    }
+    return packageIndex;
+  }
+
+  /**
+   * Returns, for a multi-release jar, the versioned entry to read in place of
+   * each class at a target release. Empty for any other archive.
+   */
+  private synchronized Map<String, Integer> getVersionedEntries(int release) {
+    if (versionedEntries != null && versionedRelease == release) {
+      return versionedEntries;
+    }
+    Map<String, Integer> chosen = new HashMap<String, Integer>();
+    Map<String, Integer> versions = new HashMap<String, Integer>();
+    boolean multiRelease = false;
+    for (int i = 0; i < names.length; i++) {
+      int version = MultiRelease.version(names[i]);
+      if (version == 0 || version > release || !names[i].endsWith(".class")) {
+        continue;
+      }
+      if (!multiRelease) {
+        multiRelease = MultiRelease.isMultiRelease(
+            getEntryBytes(find(MultiRelease.MANIFEST)));
+        if (!multiRelease) {
+          break;
+        }
+      }
+      String baseName = MultiRelease.baseName(names[i]);
+      Integer best = versions.get(baseName);
+      if (best == null || best < version) {
+        versions.put(baseName, version);
+        chosen.put(baseName, i);
+      }
+    }
+    versionedEntries = chosen;
+    versionedRelease = release;
+    return chosen;
+  }
+
+  private byte[] getEntryBytes(int entry) {
+    try {
+      return entry < 0 ? null : read(entry);
+    } catch (IOException e) {
+      throw new RuntimeException(description + ": " + names[entry], e);
+    }
+  }
+
+  /**
+   * Streams the classes of this archive in central directory order, which is
+   * usually the order they are stored in, descending into any archives it
+   * holds. Classes under WEB-INF/classes/ and BOOT-INF/classes/ are reported
+   * by the name a classloader would use for them. In a multi-release jar each
+   * class is read once, from its variant for the target release.
+   */
+  public void accept(ClassFileVisitor visitor, int release)
+      throws IOException {
+    Map<String, Integer> versioned = getVersionedEntries(release);
+    for (int i = 0; i < names.length; i++) {
+      String name = names[i];
+      if (name.endsWith(".class")) {
+        int entry = i;
+        if (name.startsWith(MultiRelease.VERSIONS)) {
+          // Only a variant with no base entry is reported under its own
+          // position; the rest are read in place of their base entry
+          String baseName = MultiRelease.baseName(name);
+          Integer chosen = versioned.get(baseName);
+          if (chosen == null || chosen != i || find(baseName) >= 0) {
+            continue;
+          }
+          name = baseName;
+        } else {
+          Integer chosen = versioned.get(name);
+          if (chosen != null) {
+            entry = chosen;
+          }
+        }
+        String resourceName = classResourceName(name);
+        if (visitor.wantsClassFile(resourceName)) {
+          visitor.visitClassFile(resourceName, read(entry));
+        }
+      } else if (isArchive(name)) {
+        ClasspathRoot nested =
+            new NestedArchiveClasspathRoot(open(i), release);
+        try {
+          nested.accept(visitor);
+        } finally {
+          nested.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the uncompressed contents of an entry.
+   */
+  public synchronized byte[] read(int entry) throws IOException {
+    int data = dataOffset(entry);
+    int compressedSize = compressedSizes[entry];
+    ByteBuffer slice = archive.duplicate();
+    slice.position(data);
+    byte[] bytes = new byte[sizes[entry]];
+    switch (methods[entry]) {
+      case STORED:
+        slice.get(bytes);
+        return bytes;
+      case DEFLATED:
+        // A raw inflater wants one byte of padding past the compressed data
+        if (input.length < compressedSize + 1) {
+          input = new byte[compressedSize + 1];
+        }
+        slice.get(input, 0, compressedSize);
+        input[compressedSize] = 0;
+        inflater.reset();
+        inflater.setInput(input, 0, compressedSize + 1);
+        try {
+          int read = 0;
+          while (read < bytes.length && !inflater.finished()) {
+            int n = inflater.inflate(bytes, read, bytes.length - read);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+              break;
+            }
+            read += n;
+          }
+          if (read != bytes.length) {
+            throw new IOException(description + ": truncated entry");
+          }
+        } catch (DataFormatException e) {
+          throw new IOException(e);
+        }
+        return bytes;
+      default:
+        throw new IOException(description + ": unsupported compression method "
+            + methods[entry]);
+    }
+  }
+
+  /**
+   * Opens an archive stored inside this one. Stored entries, such as the
+   * nested jars of a Spring Boot application, share this archive's buffer;
+   * compressed ones are inflated onto the heap. Nothing is written to disk.
+   */
+  public ZipArchive open(int entry) throws IOException {
+    ByteBuffer inner;
+    if (methods[entry] == STORED) {
+      inner = archive.duplicate();
+      inner.position(dataOffset(entry));
+      inner.limit(inner.position() + sizes[entry]);
+    } else {
+      inner = ByteBuffer.wrap(read(entry));
+    }
+    return new ZipArchive(this + "!/" + names[entry], inner);
+  }
+
+  private int dataOffset(int entry) throws IOException {
+    int header = localHeaderOffsets[entry];
+    if (archive.getInt(header) != LOCAL_HEADER) {
+      throw new IOException(description + ": corrupt local header");
+    }
+    int nameLength = archive.getShort(header + 26) & 0xFFFF;
+    int extraLength = archive.getShort(header + 28) & 0xFFFF;
+    int data = checkedOffset((long) header + 30 + nameLength + extraLength);
+    checkedOffset((long) data + compressedSizes[entry]);
+    return data;
+  }
+
+  private void readCentralDirectory() throws IOException {
+    int end = findEndOfCentralDirectory();
+    long count = archive.getShort(end + 10) & 0xFFFF;
+    long offset = archive.getInt(end + 16) & 0xFFFFFFFFL;
+
+    if ((count == 0xFFFF || offset == 0xFFFFFFFFL) && end >= 20
+        && archive.getInt(end - 20) == ZIP64_LOCATOR) {
+      int zip64End = checkedOffset(archive.getLong(end - 20 + 8));
+      if (archive.getInt(zip64End) != ZIP64_END_HEADER) {
+        throw new IOException(description + ": corrupt zip64 central directory");
+      }
+      count = archive.getLong(zip64End + 32);
+      offset = archive.getLong(zip64End + 48);
+    }
+
+    int size = checkedOffset(count);
+    names = new String[size];
+    methods = new int[size];
+    compressedSizes = new int[size];
+    sizes = new int[size];
+    localHeaderOffsets = new int[size];
+
+    int pos = checkedOffset(offset);
+    for (int i = 0; i < size; i++) {
+      if (archive.getInt(pos) != CENTRAL_HEADER) {
+        throw new IOException(description + ": corrupt central directory");
+      }
+      int nameLength = archive.getShort(pos + 28) & 0xFFFF;
+      int extraLength = archive.getShort(pos + 30) & 0xFFFF;
+      int commentLength = archive.getShort(pos + 32) & 0xFFFF;
+      long compressedSize = archive.getInt(pos + 20) & 0xFFFFFFFFL;
+      long uncompressedSize = archive.getInt(pos + 24) & 0xFFFFFFFFL;
+      long localHeaderOffset = archive.getInt(pos + 42) & 0xFFFFFFFFL;
+
+      // Sizes and offset which overflow 32 bits live in the zip64 extra field
+      int extra = pos + 46 + nameLength;
+      int extraEnd = extra + extraLength;
+      while (extra + 4 <= extraEnd) {
+        int tag = archive.getShort(extra) & 0xFFFF;
+        int length = archive.getShort(extra + 2) & 0xFFFF;
+        if (tag == ZIP64_EXTRA) {
+          int field = extra + 4;
+          if (uncompressedSize == 0xFFFFFFFFL) {
+            uncompressedSize = archive.getLong(field);
+            field += 8;
+          }
+          if (compressedSize == 0xFFFFFFFFL) {
+            compressedSize = archive.getLong(field);
+            field += 8;
+          }
+          if (localHeaderOffset == 0xFFFFFFFFL) {
+            localHeaderOffset = archive.getLong(field);
+          }
+        }
+        extra += 4 + length;
+      }
+
+      String name = readName(pos + 46, nameLength);
+      names[i] = name;
+      methods[i] = archive.getShort(pos + 10) & 0xFFFF;
+      compressedSizes[i] = checkedOffset(compressedSize);
+      sizes[i] = checkedSize(uncompressedSize);
+      localHeaderOffsets[i] = checkedOffset(localHeaderOffset);
+      if (!name.endsWith("/")) {
+        entries.put(name, i);
+        String className = classResourceName(name);
+        if (className != name && !entries.containsKey(className)) {
+          entries.put(className, i);
+        }
+      }
+
+      pos = extraEnd + commentLength;
+    }
+  }
+
+  private int findEndOfCentralDirectory() throws IOException {
+    int last = archive.limit() - 22;
+    int first = Math.max(0, archive.limit() - MAX_END_SEARCH);
+    for (int pos = last; pos >= first; pos--) {
+      if (archive.getInt(pos) == END_HEADER) {
+        return pos;
+      }
+    }
+    throw new IOException(description + " is not a zip archive");
+  }
+
+  private String readName(int pos, int length) {
+    byte[] name = new byte[length];
+    ByteBuffer slice = archive.duplicate();
+    slice.position(pos);
+    slice.get(name);
+    return new String(name, UTF8);
+  }
+
+  private int checkedOffset(long value) throws IOException {
+    if (value < 0 || value > archive.limit()) {
+      throw new IOException(description + ": entry lies outside the archive");
+    }
+    return (int) value;
+  }
+
+  private int checkedSize(long value) throws IOException {
+    if (value < 0 || value > Integer.MAX_VALUE - 8) {
+      throw new IOException(description + ": entry is too large");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Frees the native inflater. The buffer, if it is a file mapping, is left
+   * to whoever mapped it to unmap.
+   */
+  public synchronized void close() {
+    inflater.end();
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
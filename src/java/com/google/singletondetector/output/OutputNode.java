@@ -15,8 +15,9 @@
  */
 package com.google.singletondetector.output;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Contains all of the information about an idividual node in the graph produced
@@ -38,8 +39,9 @@ public class OutputNode {
   // The Name
   private String name;
 
-  // The set of all nodes that this node uses
-  private Set<OutputNode> adjacent = new HashSet<OutputNode>();
+  // The edges to all nodes that this node uses, by name, so that edges are
+  // written in the same order on every run
+  private Map<String, Edge> adjacent = new TreeMap<String, Edge>();
 
   /**
    * Default constructor, sets only the classname. It is up to subclasses to
@@ -76,7 +78,21 @@ public class OutputNode {
    * @param dest The node to point to
    */
   public void addEdge(OutputNode dest) {
-    adjacent.add(dest);
+    addEdge(dest, 0, 0, null);
+  }
+
+  /**
+   * Adds an edge from this node to the dest node, weighed by the call sites
+   * and methods making it.
+   * 
+   * @param dest The node to point to
+   * @param callSites The number of call sites making the edge
+   * @param methods The number of distinct methods making the edge
+   * @param callers The methods making the edge, or null if not known
+   */
+  public void addEdge(OutputNode dest, int callSites, int methods,
+      List<String> callers) {
+    adjacent.put(dest.name, new Edge(dest, callSites, methods, callers));
   }
 
   /**
@@ -137,10 +153,11 @@ public class OutputNode {
   public String getGraphMlEdges() {
     String ret = "";
 
-    for (OutputNode node : adjacent) {
+    for (Edge edge : adjacent.values()) {
+      OutputNode node = edge.dest;
       ret +=
           "" + "    <edge source=\"" + name + "\" target=\"" + node.name
-              + "\">\n" + "      <data key=\"d1\">\n"
+              + "\">\n" + edge.getGraphMlData() + "      <data key=\"d1\">\n"
               + "        <y:PolyLineEdge>\n"
               + "          <y:LineStyle color = \"#" + node.getFillColor()
               + "\"/>\n"
@@ -151,4 +168,45 @@ public class OutputNode {
 
     return ret;
   }
+
+  /**
+   * An edge to a node, and its weights.
+   */
+  private static class Edge {
+    private final OutputNode dest;
+    private final int callSites;
+    private final int methods;
+    private final List<String> callers;
+
+    Edge(OutputNode dest, int callSites, int methods, List<String> callers) {
+      this.dest = dest;
+      this.callSites = callSites;
+      this.methods = methods;
+      this.callers = callers;
+    }
+
+    /**
+     * Returns the weights of this edge in GraphML format, if it has any.
+     */
+    String getGraphMlData() {
+      String ret = "";
+      if (callSites > 0) {
+        ret += "      <data key=\"d2\">" + callSites + "</data>\n"
+            + "      <data key=\"d3\">" + methods + "</data>\n";
+      }
+      if (callers != null) {
+        String list = "";
+        for (String caller : callers) {
+          list += (list.length() > 0 ? "&#xA;" : "") + escape(caller);
+        }
+        ret += "      <data key=\"d4\">" + list + "</data>\n";
+      }
+      return ret;
+    }
+
+    private static String escape(String str) {
+      return str.replace("&", "&amp;").replace("<", "&lt;")
+          .replace(">", "&gt;");
+    }
+  }
 }
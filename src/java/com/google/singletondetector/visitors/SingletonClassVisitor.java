@@ -15,7 +15,7 @@
  */
 package com.google.singletondetector.visitors;
 
-import com.google.singletondetector.SingletonDetector;
+import com.google.singletondetector.ClassContext;
 
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
@@ -24,36 +24,56 @@ import org.objectweb.asm.Opcodes;
 /**
  * Visitor object that is responsible for traversing a class and noting static
  * fields and static method calls. Helps SingletonDetector figure out which
- * classes are special and what type of special class they are.
+ * classes are special and what type of special class they are. Unless the
+ * detector reads them itself, each method body is handed to a
+ * SingletonUsageMethodVisitor in the same pass, so that the calls and field
+ * accesses it makes are recorded for later resolution. A class read again
+ * after it has been classified has only its method bodies visited.
  * 
  * @author David Rubel
  */
 public class SingletonClassVisitor extends NoopClassVisitor {
-  // Reference to the singleton detector, used to call visit methods
-  SingletonDetector sd;
+  // The class being read, used to call visit methods
+  ClassContext context;
 
-  public SingletonClassVisitor(SingletonDetector sd) {
+  // Whether fields and method signatures are visited to classify the class,
+  // and whether method bodies are visited for call sites
+  boolean visitMembers;
+  boolean visitCode;
+
+  public SingletonClassVisitor(ClassContext context) {
+    this(context, true);
+  }
+
+  public SingletonClassVisitor(ClassContext context, boolean visitCode) {
+    this(context, true, visitCode);
+  }
+
+  public SingletonClassVisitor(ClassContext context, boolean visitMembers,
+      boolean visitCode) {
     super();
-    this.sd = sd;
+    this.context = context;
+    this.visitMembers = visitMembers;
+    this.visitCode = visitCode;
   }
 
   @Override
   public void visit(int version, int access, String name, String signature,
       String superName, String[] interfaces) {
-    sd.setCurrClass(name);
+    context.setCurrClass(name);
   }
   
   @Override
   public FieldVisitor visitField(int access, String name, String desc,
       String signature, Object value) {
-    if ((access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC) {
+    if (visitMembers && (access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC) {
       if ((access & Opcodes.ACC_PUBLIC) == Opcodes.ACC_PUBLIC) {
-        sd.visitStaticField(name, desc);
+        context.visitStaticField(name, desc);
       }
 
       if ((access & Opcodes.ACC_PRIVATE) == Opcodes.ACC_PRIVATE
           && (access & Opcodes.ACC_FINAL) != Opcodes.ACC_FINAL) {
-        sd.addStaticField(name, desc);
+        context.addStaticField(name, desc);
       }
     }
     return null;
@@ -62,10 +82,14 @@ public class SingletonClassVisitor extends NoopClassVisitor {
   @Override
   public MethodVisitor visitMethod(int access, String name, String desc,
       String signature, String[] exceptions) {
-    if (((access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC && (access & Opcodes.ACC_PUBLIC) == Opcodes.ACC_PUBLIC)) {
-      sd.visitStaticMethod(name, desc);
+    if (visitMembers && ((access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC && (access & Opcodes.ACC_PUBLIC) == Opcodes.ACC_PUBLIC)) {
+      context.visitStaticMethod(name, desc);
     }
 
-    return super.visitMethod(access, name, desc, signature, exceptions);
+    if (!visitCode) {
+      return null;
+    }
+    context.startMethod(name, desc);
+    return new SingletonUsageMethodVisitor(context);
   }
 }
@@ -15,7 +15,7 @@
  */
 package com.google.singletondetector.visitors;
 
-import com.google.singletondetector.SingletonDetector;
+import com.google.singletondetector.ClassContext;
 
 import org.objectweb.asm.Opcodes;
 
@@ -27,27 +27,33 @@ import org.objectweb.asm.Opcodes;
  * @author David Rubel
  */
 public class SingletonUsageMethodVisitor extends NoopMethodVisitor {
-  // Reference to the singleton detector, used to call visit methods  
-  SingletonDetector sd;
+  // The class being read, used to call visit methods
+  ClassContext context;
 
-  public SingletonUsageMethodVisitor(SingletonDetector sd) {
+  public SingletonUsageMethodVisitor(ClassContext context) {
     super();
-    this.sd = sd;
+    this.context = context;
   }
 
   @Override
   public void visitMethodInsn(int opcode, String referencedClass,
       String methodName, String desc) {
     if (opcode == Opcodes.INVOKESTATIC) {
-      sd.invokeStatic(referencedClass, desc);
+      context.invokeStatic(referencedClass, desc);
     }
   }
 
+  @Override
+  public void visitMethodInsn(int opcode, String referencedClass,
+      String methodName, String desc, boolean isInterface) {
+    visitMethodInsn(opcode, referencedClass, methodName, desc);
+  }
+
   @Override
   public void visitFieldInsn(int opcode, String owner, String name, String desc) {
     if ((opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC)
         && desc.startsWith("L")) {
-      sd.fieldInstruction(owner);
+      context.fieldInstruction(owner);
     }
   }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds archives out of the compiled test classes for the classpath tests.
+ */
+public class ArchiveFixtures {
+  // Directory holding the compiled test classes
+  public static final File CLASSES = new File("target/test-classes");
+
+  private ArchiveFixtures() {
+  }
+
+  public static void addDirectory(ZipOutputStream out, String dir, int method)
+      throws IOException {
+    addDirectory(out, "", dir, method);
+  }
+
+  /**
+   * Adds every class file of a test package, under entryPrefix + dir.
+   */
+  public static void addDirectory(ZipOutputStream out, String entryPrefix,
+      String dir, int method) throws IOException {
+    out.putNextEntry(new ZipEntry(entryPrefix + dir));
+    for (File file : new File(CLASSES, dir).listFiles()) {
+      addEntry(out, entryPrefix + dir + file.getName(), read(file), method);
+    }
+  }
+
+  public static void addEntry(ZipOutputStream out, String name, byte[] bytes,
+      int method) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      entry.setSize(bytes.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(bytes);
+  }
+
+  /**
+   * Returns the bytes of a jar holding the classes of one test package.
+   */
+  public static byte[] archiveOf(String dir) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ZipOutputStream out = new ZipOutputStream(bytes);
+    addDirectory(out, dir, ZipEntry.DEFLATED);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes a file entry of a ustar archive. Names too long for the header
+   * are written as a pax path record first.
+   */
+  public static void addTarEntry(OutputStream out, String name, byte[] bytes)
+      throws IOException {
+    if (name.length() > 100) {
+      String record = " path=" + name + "\n";
+      int length = record.length() + 2;
+      length = record.length() + String.valueOf(length).length();
+      byte[] pax = (length + record).getBytes("UTF-8");
+      writeTarBlock(out, "PaxHeader", 'x', pax);
+      name = name.substring(name.length() - 100);
+    }
+    writeTarBlock(out, name, '0', bytes);
+  }
+
+  /**
+   * Writes the two blocks of zeros which end a tar archive.
+   */
+  public static void endTar(OutputStream out) throws IOException {
+    out.write(new byte[1024]);
+  }
+
+  private static void writeTarBlock(OutputStream out, String name, char type,
+      byte[] bytes) throws IOException {
+    byte[] header = new byte[512];
+    putTarField(header, 0, name);
+    putTarField(header, 100, "0000644");
+    putTarField(header, 124, String.format("%011o", bytes.length));
+    putTarField(header, 136, String.format("%011o", 0));
+    header[156] = (byte) type;
+    putTarField(header, 257, "ustar");
+    putTarField(header, 263, "00");
+    for (int i = 148; i < 156; i++) {
+      header[i] = ' ';
+    }
+    int checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    putTarField(header, 148, String.format("%06o", checksum));
+    out.write(header);
+    out.write(bytes);
+    out.write(new byte[(512 - bytes.length % 512) % 512]);
+  }
+
+  private static void putTarField(byte[] header, int offset, String value)
+      throws IOException {
+    byte[] bytes = value.getBytes("UTF-8");
+    System.arraycopy(bytes, 0, header, offset, bytes.length);
+  }
+
+  public static byte[] read(File file) throws IOException {
+    return read(new FileInputStream(file));
+  }
+
+  public static byte[] read(InputStream is) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    byte[] chunk = new byte[4096];
+    int n;
+    while ((n = is.read(chunk)) != -1) {
+      buf.write(chunk, 0, n);
+    }
+    is.close();
+    return buf.toByteArray();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import junit.framework.TestCase;
+
+public class ClassGraphTest extends TestCase {
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testRowsAreSortedAndDistinct() {
+    ClassGraph graph = new ClassGraph(Memory.HEAP);
+    graph.addUse(2, 3);
+    graph.addUse(0, 3);
+    graph.addUse(2, 0);
+    graph.addUse(2, 3);
+    graph.addUse(0, 1);
+    graph.freeze(4);
+
+    assertEquals(4, graph.getUseCount());
+    assertEquals(2, graph.getUseCount(0));
+    assertEquals(1, graph.getUse(0, 0));
+    assertEquals(3, graph.getUse(0, 1));
+    assertEquals(0, graph.getUseCount(1));
+    assertEquals(2, graph.getUseCount(2));
+    assertEquals(0, graph.getUse(2, 0));
+    assertEquals(3, graph.getUse(2, 1));
+    assertEquals(0, graph.getUseCount(3));
+
+    assertEquals(2, graph.getUserCount(3));
+    assertEquals(0, graph.getUser(3, 0));
+    assertEquals(2, graph.getUser(3, 1));
+    assertEquals(1, graph.getUserCount(1));
+    assertEquals(0, graph.getUserCount(2));
+
+    assertTrue(graph.uses(2, 3));
+    assertFalse(graph.uses(3, 2));
+    assertFalse(graph.uses(1, 0));
+  }
+
+  public void testWeights() {
+    ClassGraph graph = new ClassGraph(Memory.HEAP, true);
+    graph.addUse(0, 1, 5, 2);
+    graph.addUse(0, 1, 7, 1);
+    graph.addUse(2, 1, 5, 4);
+    graph.addUse(0, 1, 5, 1);
+    graph.addUse(0, 2, 7, 1);
+    graph.freeze(3);
+
+    assertEquals(3, graph.getUseCount());
+    assertEquals(4, graph.getSiteCount(0, 0));
+    assertEquals(2, graph.getMethodCount(0, 0));
+    assertEquals(5, graph.getMethod(0, 0, 0));
+    assertEquals(7, graph.getMethod(0, 0, 1));
+    assertEquals(1, graph.getSiteCount(0, 1));
+    assertEquals(7, graph.getMethod(0, 1, 0));
+    assertEquals(4, graph.getSiteCount(2, 0));
+    assertEquals(1, graph.getMethodCount(2, 0));
+    assertEquals(8, graph.getSiteTotal(1));
+    assertEquals(1, graph.getSiteTotal(2));
+    assertEquals(0, graph.getSiteTotal(0));
+  }
+
+    public void testManyUses() {
+    ClassGraph graph = new ClassGraph(Memory.offHeap());
+    int classes = 1000;
+    for (int i = 0; i < classes; i++) {
+      for (int j = 0; j < 10; j++) {
+        graph.addUse(i, (i * 7 + j * 13) % classes);
+      }
+    }
+    graph.freeze(classes);
+
+    assertEquals(10 * classes, graph.getUseCount());
+    for (int i = 0; i < classes; i++) {
+      assertEquals(10, graph.getUserCount(i));
+      for (int j = 0; j < 10; j++) {
+        assertTrue(graph.uses(i, (i * 7 + j * 13) % classes));
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import static com.google.singletondetector.ArchiveFixtures.*;
+
+import com.google.singletondetector.p1.FingletonOne;
+import com.google.singletondetector.p2.NotASingletonOne;
+import com.google.singletondetector.p2.SingletonOne;
+import com.google.singletondetector.p2.SingletonUserOne;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClassPrefilterTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  private ClassReader reader(Class<?> clazz) throws IOException {
+    String resourceName = clazz.getName().replace('.', '/') + ".class";
+    return new ClassReader(read(new File(CLASSES, resourceName)));
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testLevels() throws IOException {
+    assertEquals(ClassPrefilter.NAME_ONLY,
+        ClassPrefilter.level(reader(NotASingletonOne.class)));
+    assertEquals(ClassPrefilter.MEMBERS,
+        ClassPrefilter.level(reader(SingletonOne.class)));
+    assertEquals(ClassPrefilter.MEMBERS,
+        ClassPrefilter.level(reader(FingletonOne.class)));
+    assertEquals(ClassPrefilter.FULL,
+        ClassPrefilter.level(reader(SingletonUserOne.class)));
+  }
+
+  public void testPrefilteredClassesStillDetected() throws IOException {
+    List<ClassReader> readers = new ArrayList<ClassReader>();
+    readers.add(reader(NotASingletonOne.class));
+    readers.add(reader(SingletonOne.class));
+    readers.add(reader(SingletonUserOne.class));
+    SingletonDetector detector =
+        new SingletonDetector(readers, path, new Flags());
+
+    Clazz notASingletonOne = detector.getClass(
+        NotASingletonOne.class.getName().replace('.', '/'));
+    Clazz singletonOne =
+        detector.getClass(SingletonOne.class.getName().replace('.', '/'));
+    Clazz singletonUserOne =
+        detector.getClass(SingletonUserOne.class.getName().replace('.', '/'));
+    assertNotNull(notASingletonOne);
+    assertFalse(notASingletonOne.isSpecial());
+    assertTrue(singletonOne.isSingleton());
+    assertTrue(singletonUserOne.uses(singletonOne));
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import static com.google.singletondetector.ArchiveFixtures.*;
+
+import com.google.singletondetector.p2.SingletonOne;
+import com.google.singletondetector.p2.SingletonUserOne;
+import com.google.singletondetector.visitors.SingletonClassVisitor;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+public class CodeScannerTest extends TestCase {
+  private SingletonDetector detector;
+
+  /**
+   * Calls a singleton once from one method and three times from another.
+   */
+  static class Caller {
+    void once() {
+      SingletonOne.getInst();
+    }
+
+    void thrice() {
+      SingletonOne.getInst();
+      SingletonOne.getInst();
+      SingletonOne.getInst();
+    }
+  }
+
+  @Override
+  protected void setUp() {
+    detector =
+        new SingletonDetector(new ArrayList<ClassReader>(), "", new Flags());
+  }
+
+  private ClassReader reader(Class<?> clazz) throws IOException {
+    String resourceName = clazz.getName().replace('.', '/') + ".class";
+    return new ClassReader(read(new File(CLASSES, resourceName)));
+  }
+
+  /**
+   * Returns the sites recorded, one "class owner desc method count" string
+   * each.
+   */
+  private List<String> sites(CallSites callSites) {
+    final SymbolTable symbols = callSites.getSymbols();
+    final List<String> targets = new ArrayList<String>();
+    final List<String> sites = new ArrayList<String>();
+    ForkJoinPool pool = new ForkJoinPool(1);
+    callSites.resolve(pool, new CallSites.Resolver() {
+      // Every target is classified as a class of its own, named after it
+      public int classifyInvokeStatic(int owner, int desc) {
+        targets.add(symbols.name(owner) + " " + symbols.name(desc));
+        return targets.size() - 1;
+      }
+
+      public int classifyFieldInstruction(int owner) {
+        targets.add(symbols.name(owner));
+        return targets.size() - 1;
+      }
+
+      public int getClass(int classId) {
+        return classId;
+      }
+
+      public void use(int user, int used, boolean invokeStatic, int method,
+          int count) {
+        sites.add(symbols.name(user) + " " + targets.get(used) + " " + method
+            + " " + count);
+      }
+    });
+    pool.shutdown();
+    return sites;
+  }
+
+  /**
+   * Returns empty sites, sharing the symbols of the detector which classes
+   * are recorded in.
+   */
+  private CallSites callSites() {
+    return new CallSites(detector.getSymbols());
+  }
+
+  private ClassContext context(CallSites callSites) {
+    return new ClassContext(detector, callSites, ClassPrefilter.FULL);
+  }
+
+  private List<String> scan(ClassReader cr) {
+    CallSites callSites = callSites();
+    CodeScanner scanner = new CodeScanner(callSites.getSymbols(),
+        detector.getFlags().recordsEdgeMethods());
+    assertTrue(cr.getClassName(), scanner.scan(cr));
+    ClassContext context = context(callSites);
+    context.setCurrClass(cr.getClassName());
+    scanner.record(context);
+    context.finish();
+    return sites(callSites);
+  }
+
+  /**
+   * Records the same sites as scan(), through ASM.
+   */
+  private List<String> visit(ClassReader cr) {
+    CallSites callSites = callSites();
+    ClassContext context = context(callSites);
+    cr.accept(new SingletonClassVisitor(context), ClassReader.SKIP_DEBUG);
+    context.finish();
+    return sites(callSites);
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testFindsStaticCalls() throws IOException {
+    String singletonOne = SingletonOne.class.getName().replace('.', '/');
+    List<String> sites = scan(reader(SingletonUserOne.class));
+    assertTrue(sites.toString(), sites.contains(
+        SingletonUserOne.class.getName().replace('.', '/') + " "
+            + singletonOne + " ()L" + singletonOne + "; 0 1"));
+  }
+
+  public void testCountsSitesPerMethod() throws IOException {
+    String singletonOne = SingletonOne.class.getName().replace('.', '/');
+    String site = Caller.class.getName().replace('.', '/') + " "
+        + singletonOne + " ()L" + singletonOne + "; ";
+    List<String> sites = scan(reader(Caller.class));
+    assertEquals(Arrays.asList(site + "1 1", site + "2 3"), sites);
+    assertEquals(visit(reader(Caller.class)), sites);
+  }
+
+  public void testNamesMethods() throws IOException {
+    Flags flags = new Flags();
+    flags.setRecordsEdgeMethods(true);
+    detector = new SingletonDetector(new ArrayList<ClassReader>(), "", flags);
+    List<String> sites = scan(reader(Caller.class));
+    assertEquals(visit(reader(Caller.class)), sites);
+    SymbolTable symbols = detector.getSymbols();
+    assertTrue(sites.get(1).endsWith(
+        " " + symbols.find("thrice()V") + " 3"));
+  }
+
+  public void testMatchesAsm() throws IOException {
+    // ASM's own classes have every kind of instruction, switches included
+    File asm = new File(ClassReader.class.getProtectionDomain()
+        .getCodeSource().getLocation().getPath());
+    JarFile jar = new JarFile(asm);
+    try {
+      int classes = 0;
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(".class")
+            && !entry.getName().endsWith("module-info.class")) {
+          ClassReader cr = new ClassReader(jar.getInputStream(entry));
+          assertEquals(entry.getName(), visit(cr), scan(cr));
+          classes++;
+        }
+      }
+      assertTrue(classes > 0);
+    } finally {
+      jar.close();
+    }
+  }
+
+  public void testRejectsUnknownOpcodes() throws IOException {
+    ClassReader cr = reader(SingletonUserOne.class);
+    byte[] b = cr.b.clone();
+    b[firstInstruction(cr)] = (byte) 0xff;
+    CallSites callSites = callSites();
+    assertFalse(new CodeScanner(callSites.getSymbols())
+        .scan(new ClassReader(b)));
+    assertEquals(0, callSites.size());
+  }
+
+  /**
+   * Returns the offset of the first instruction of the first method with code.
+   */
+  private int firstInstruction(ClassReader cr) {
+    int offset = cr.header + 6;
+    offset += 2 + 2 * cr.readUnsignedShort(offset);
+    for (int members = 0; members < 2; members++) {
+      int count = cr.readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < count; i++) {
+        int attributes = cr.readUnsignedShort(offset + 6);
+        offset += 8;
+        for (int j = 0; j < attributes; j++) {
+          if (members == 1
+              && "Code".equals(cr.readUTF8(offset, new char[16]))) {
+            return offset + 14;
+          }
+          offset += 6 + cr.readInt(offset + 2);
+        }
+      }
+    }
+    throw new AssertionError("No code");
+  }
+}
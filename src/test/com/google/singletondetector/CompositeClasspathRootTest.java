@@ -0,0 +1,258 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import com.google.singletondetector.classpath.ArchivePool;
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.ClasspathRoot;
+import com.google.singletondetector.classpath.ClasspathRoots;
+import com.google.singletondetector.classpath.CompositeClasspathRoot;
+import com.google.singletondetector.classpath.ReadOptions;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class CompositeClasspathRootTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  // A jar whose SingletonOne.class really holds NotASingletonOne
+  private File jar;
+
+  private byte[] singletonOne;
+  private byte[] notASingletonOne;
+
+  @Override
+  protected void setUp() throws IOException {
+    singletonOne = ArchiveFixtures.read(
+        new File(ArchiveFixtures.CLASSES, path + "p2/SingletonOne.class"));
+    notASingletonOne = ArchiveFixtures.read(
+        new File(ArchiveFixtures.CLASSES, path + "p2/NotASingletonOne.class"));
+    jar = File.createTempFile("shadow", ".jar");
+    writeJar(jar, notASingletonOne);
+  }
+
+  @Override
+  protected void tearDown() {
+    jar.delete();
+  }
+
+  private Map<String, byte[]> scan(String classpath) throws IOException {
+    return scan(classpath, new ReadOptions());
+  }
+
+  private Map<String, byte[]> scan(String classpath, ReadOptions options)
+      throws IOException {
+    ClasspathRoot root = ClasspathRoots.forPath(classpath, options);
+    final Map<String, byte[]> visited = new HashMap<String, byte[]>();
+    final List<String> duplicates = new ArrayList<String>();
+    root.accept(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return resourceName.contains("/p2/");
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        if (visited.put(resourceName, bytes) != null) {
+          duplicates.add(resourceName);
+        }
+      }
+    });
+    assertEquals(new ArrayList<String>(), duplicates);
+    return visited;
+  }
+
+  public void testFirstRootWins() throws IOException {
+    Map<String, byte[]> visited = scan(jar.getPath() + File.pathSeparator
+        + ArchiveFixtures.CLASSES.getPath());
+    assertEquals(new File(ArchiveFixtures.CLASSES, path + "p2/").list().length,
+        visited.size());
+    assertTrue(Arrays.equals(notASingletonOne,
+        visited.get(path + "p2/SingletonOne.class")));
+  }
+
+  public void testLaterRootIsShadowed() throws IOException {
+    Map<String, byte[]> visited = scan(ArchiveFixtures.CLASSES.getPath()
+        + File.pathSeparator + jar.getPath());
+    assertTrue(Arrays.equals(singletonOne,
+        visited.get(path + "p2/SingletonOne.class")));
+  }
+
+  public void testThreadPerRoot() throws IOException {
+    Map<String, byte[]> visited = scan(jar.getPath() + File.pathSeparator
+        + ArchiveFixtures.CLASSES.getPath() + File.pathSeparator
+        + jar.getPath(), new ReadOptions().withPool(new ArchivePool(1))
+        .withThreadPerTask(true));
+    assertEquals(
+        new File(ArchiveFixtures.CLASSES, path + "p2/").list().length,
+        visited.size());
+    assertTrue(Arrays.equals(notASingletonOne,
+        visited.get(path + "p2/SingletonOne.class")));
+  }
+
+  public void testArchivesInSiblingDirectoriesAreReadInPathOrder()
+      throws IOException {
+    File dir = File.createTempFile("siblings", "");
+    dir.delete();
+    File first = new File(dir, "a/lib.jar");
+    File second = new File(dir, "b/lib.jar");
+    try {
+      first.getParentFile().mkdirs();
+      second.getParentFile().mkdirs();
+      writeJar(first, notASingletonOne);
+      writeJar(second, singletonOne);
+      for (int i = 0; i < 20; i++) {
+        Map<String, byte[]> visited = scan(dir.getPath(), new ReadOptions()
+            .withReaders(4).withThreadPerTask(i % 2 == 0));
+        assertTrue(Arrays.equals(notASingletonOne,
+            visited.get(path + "p2/SingletonOne.class")));
+      }
+    } finally {
+      first.delete();
+      second.delete();
+      first.getParentFile().delete();
+      second.getParentFile().delete();
+      dir.delete();
+    }
+  }
+
+  private void writeJar(File file, byte[] singletonOneBytes)
+      throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    ArchiveFixtures.addEntry(out, path + "p2/SingletonOne.class",
+        singletonOneBytes, ZipEntry.DEFLATED);
+    out.close();
+  }
+
+  /**
+   * A root holding one class, which counts its scans and may wait on a
+   * latch before reporting it and count down another once it has.
+   */
+  private static class FakeRoot implements ClasspathRoot {
+    final byte[] bytes;
+    final CountDownLatch before;
+    final CountDownLatch after;
+    int scans = 0;
+
+    FakeRoot(byte[] bytes, CountDownLatch before, CountDownLatch after) {
+      this.bytes = bytes;
+      this.before = before;
+      this.after = after;
+    }
+
+    public InputStream getResourceAsStream(String resourceName) {
+      return null;
+    }
+
+    public Collection<String> getResources(String packageName) {
+      return Collections.emptyList();
+    }
+
+    public void accept(ClassFileVisitor visitor) throws IOException {
+      scans++;
+      try {
+        before.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      if (visitor.wantsClassFile("p/A.class")) {
+        visitor.visitClassFile("p/A.class", bytes);
+      }
+      after.countDown();
+    }
+
+    public void close() {
+    }
+  }
+
+  public void testEarlierRootWinsWhenItFinishesLast() throws IOException {
+    // The second root reports its copy first and finishes before the first
+    // root has reported anything
+    CountDownLatch secondDone = new CountDownLatch(1);
+    FakeRoot first = new FakeRoot(singletonOne, secondDone,
+        new CountDownLatch(1));
+    FakeRoot second = new FakeRoot(notASingletonOne, new CountDownLatch(0),
+        secondDone);
+    ClasspathRoot root = new CompositeClasspathRoot(
+        Arrays.<ClasspathRoot>asList(first, second), 2);
+    final Map<String, byte[]> visited = new HashMap<String, byte[]>();
+    root.accept(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return true;
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        assertNull(visited.put(resourceName, bytes));
+      }
+    });
+    assertEquals(1, visited.size());
+    assertTrue(Arrays.equals(singletonOne, visited.get("p/A.class")));
+    assertEquals(1, first.scans);
+    assertEquals(1, second.scans);
+  }
+
+  public void testRuntimeFailureIsRethrownUnchanged() throws IOException {
+    final IllegalStateException failure = new IllegalStateException();
+    ClasspathRoot failing = new FakeRoot(singletonOne, new CountDownLatch(0),
+        new CountDownLatch(1)) {
+      @Override
+      public void accept(ClassFileVisitor visitor) {
+        throw failure;
+      }
+    };
+    ClasspathRoot root = new CompositeClasspathRoot(Arrays.asList(failing,
+        new FakeRoot(notASingletonOne, new CountDownLatch(0),
+            new CountDownLatch(1))));
+    try {
+      root.accept(new ClassFileVisitor() {
+        public boolean wantsPackage(String packagePath) {
+          return true;
+        }
+
+        public boolean wantsClassFile(String resourceName) {
+          return true;
+        }
+
+        public void visitClassFile(String resourceName, byte[] bytes) {
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+  }
+}
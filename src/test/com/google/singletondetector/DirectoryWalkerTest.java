@@ -0,0 +1,144 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.DirectoryWalker;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class DirectoryWalkerTest extends TestCase {
+  // In sorted order
+  private static final List<String> CLASSES = Arrays.asList("Top.class",
+      "a/A.class", "a/b/B.class", "a/b/c/C.class", "d/D.class");
+
+  // Listed out of path order, and at several depths
+  private static final List<String> ARCHIVES = Arrays.asList("z.jar",
+      "d/m.jmod", "a/lib.jar", "a/b/c/deep.war");
+
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("walk", "");
+    dir.delete();
+    for (String name : CLASSES) {
+      write(name, name.getBytes("UTF-8"));
+    }
+    for (String name : ARCHIVES) {
+      write(name, new byte[0]);
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    delete(dir);
+  }
+
+  public void testEveryClassIsVisitedAndArchivesAreInPathOrder()
+      throws IOException {
+    List<String> archives = Arrays.asList("a/b/c/deep.war", "a/lib.jar",
+        "d/m.jmod", "z.jar");
+    for (int parallelism : new int[] {1, 4}) {
+      for (boolean threadPerTask : new boolean[] {false, true}) {
+        Map<String, String> visited = new TreeMap<String, String>();
+        List<Path> found = walk(visited, null, parallelism, threadPerTask);
+        assertEquals(CLASSES, new ArrayList<String>(visited.keySet()));
+        for (Map.Entry<String, String> entry : visited.entrySet()) {
+          assertEquals(entry.getKey(), entry.getValue());
+        }
+        assertEquals(archives, relative(found));
+      }
+    }
+  }
+
+  public void testUnwantedPackagesAreNotListed() throws IOException {
+    Map<String, String> visited = new TreeMap<String, String>();
+    List<Path> found = walk(visited, "a/b/", 4, false);
+    assertEquals(Arrays.asList("Top.class", "a/A.class", "d/D.class"),
+        new ArrayList<String>(visited.keySet()));
+    assertEquals(Arrays.asList("a/lib.jar", "d/m.jmod", "z.jar"),
+        relative(found));
+  }
+
+  /**
+   * Walks the tree, skipping a package and those beneath it if given, and
+   * gathers the contents of each class file visited.
+   */
+  private List<Path> walk(final Map<String, String> visited,
+      final String skipped, int parallelism, boolean threadPerTask)
+      throws IOException {
+    ClassFileVisitor visitor = new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return skipped == null || !packagePath.startsWith(skipped);
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return true;
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        try {
+          assertNull(resourceName,
+              visited.put(resourceName, new String(bytes, "UTF-8")));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    return new DirectoryWalker(Collections.singletonList(dir.toPath()),
+        visitor, parallelism, threadPerTask).walk();
+  }
+
+  private List<String> relative(List<Path> archives) {
+    List<String> names = new ArrayList<String>();
+    for (Path archive : archives) {
+      names.add(dir.toPath().relativize(archive).toString()
+          .replace(File.separatorChar, '/'));
+    }
+    return names;
+  }
+
+  private void write(String name, byte[] bytes) throws IOException {
+    File file = new File(dir, name);
+    file.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream(file);
+    out.write(bytes);
+    out.close();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import static com.google.singletondetector.ArchiveFixtures.*;
+
+import com.google.singletondetector.classpath.InMemoryClasspathRoot;
+import com.google.singletondetector.p2.NotASingletonOne;
+import com.google.singletondetector.p2.SingletonOne;
+import com.google.singletondetector.p2.SingletonUserOne;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class InMemoryClasspathRootTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  private String resourceName(Class<?> clazz) {
+    return clazz.getName().replace('.', '/') + ".class";
+  }
+
+  private byte[] classFile(Class<?> clazz) throws IOException {
+    return read(new File(CLASSES, resourceName(clazz)));
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testHeapAndDirectBuffers() throws IOException {
+    byte[] singletonOne = classFile(SingletonOne.class);
+    ByteBuffer direct = ByteBuffer.allocateDirect(singletonOne.length + 8);
+    direct.position(8);
+    direct.put(singletonOne);
+    direct.position(8);
+
+    InMemoryClasspathRoot root = new InMemoryClasspathRoot();
+    root.put(resourceName(SingletonOne.class), direct);
+    root.put(resourceName(SingletonUserOne.class),
+        classFile(SingletonUserOne.class));
+
+    assertTrue(Arrays.equals(singletonOne,
+        read(root.getResourceAsStream(resourceName(SingletonOne.class)))));
+    assertEquals(8, direct.position());
+    assertNull(root.getResourceAsStream(resourceName(NotASingletonOne.class)));
+    assertTrue(root.getResources(path + "p2/").contains("SingletonUserOne.class"));
+  }
+
+  public void testDetectsSingletonsInBuffers() throws IOException {
+    Map<String, ByteBuffer> classFiles = new HashMap<String, ByteBuffer>();
+    for (Class<?> clazz : new Class<?>[] {SingletonOne.class,
+        SingletonUserOne.class, NotASingletonOne.class}) {
+      classFiles.put(resourceName(clazz), ByteBuffer.wrap(classFile(clazz)));
+    }
+    SingletonDetector detector =
+        new SingletonDetector(classFiles, path, new Flags());
+    Clazz singletonOne =
+        detector.getClass(SingletonOne.class.getName().replace('.', '/'));
+    Clazz singletonUserOne =
+        detector.getClass(SingletonUserOne.class.getName().replace('.', '/'));
+    assertTrue(singletonOne.isSingleton());
+    assertTrue(singletonUserOne.uses(singletonOne));
+    assertFalse(detector.getClass(
+        NotASingletonOne.class.getName().replace('.', '/')).isSingleton());
+  }
+}
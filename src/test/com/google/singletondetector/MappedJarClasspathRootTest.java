@@ -0,0 +1,338 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import static com.google.singletondetector.ArchiveFixtures.*;
+
+import com.google.singletondetector.classpath.ArchivePool;
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.ClasspathRoot;
+import com.google.singletondetector.classpath.JarClasspathRoot;
+import com.google.singletondetector.classpath.MappedJarClasspathRoot;
+import com.google.singletondetector.p1.HingletonOne;
+import com.google.singletondetector.p2.SingletonOne;
+import com.google.singletondetector.p2.SingletonUserOne;
+import com.google.singletondetector.p3.HingletonUserOne;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class MappedJarClasspathRootTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  private File jar;
+
+  @Override
+  protected void setUp() throws IOException {
+    jar = File.createTempFile("mapped", ".jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    addDirectory(out, path + "p1/", ZipEntry.DEFLATED);
+    addDirectory(out, path + "p2/", ZipEntry.STORED);
+    addDirectory(out, path + "p3/", ZipEntry.DEFLATED);
+    out.close();
+  }
+
+  @Override
+  protected void tearDown() {
+    jar.delete();
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testGetResources() throws IOException {
+    MappedJarClasspathRoot root =
+        new MappedJarClasspathRoot(jar.toURI().toURL());
+    assertTrue(root.getResources("").contains("com"));
+    assertTrue(root.getResources(path).contains("p2"));
+    assertTrue(root.getResources(path + "p2/").contains("SingletonOne.class"));
+    assertTrue(root.getResources("nothere/").isEmpty());
+  }
+
+  public void testInflatedAndStoredEntriesMatchClassFiles() throws IOException {
+    MappedJarClasspathRoot root =
+        new MappedJarClasspathRoot(jar.toURI().toURL());
+    for (String dir : new String[] {"p1/", "p2/"}) {
+      for (File file : new File(CLASSES, path + dir).listFiles()) {
+        String name = path + dir + file.getName();
+        assertTrue(name,
+            Arrays.equals(read(file), read(root.getResourceAsStream(name))));
+      }
+    }
+    assertNull(root.getResourceAsStream(path + "p1/Missing.class"));
+  }
+
+  public void testAcceptStreamsEveryWantedClass() throws IOException {
+    MappedJarClasspathRoot root =
+        new MappedJarClasspathRoot(jar.toURI().toURL());
+    final List<String> visited = new ArrayList<String>();
+    root.accept(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return !resourceName.contains("/p3/");
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        visited.add(resourceName);
+      }
+    });
+    int expected = new File(CLASSES, path + "p1/").list().length
+        + new File(CLASSES, path + "p2/").list().length;
+    assertEquals(expected, visited.size());
+    assertTrue(visited.contains(path + "p2/SingletonOne.class"));
+  }
+
+  public void testNestedArchives() throws IOException {
+    // A Spring Boot style jar: classes under BOOT-INF/classes/, one stored
+    // and one compressed library jar, and a war holding the third package
+    File boot = File.createTempFile("boot", ".jar");
+    try {
+      ZipOutputStream out = new ZipOutputStream(new FileOutputStream(boot));
+      addDirectory(out, "BOOT-INF/classes/", path + "p1/", ZipEntry.DEFLATED);
+      addEntry(out, "BOOT-INF/lib/p2.jar", archiveOf(path + "p2/"),
+          ZipEntry.STORED);
+      ByteArrayOutputStream war = new ByteArrayOutputStream();
+      ZipOutputStream warOut = new ZipOutputStream(war);
+      addEntry(warOut, "WEB-INF/lib/p3.jar", archiveOf(path + "p3/"),
+          ZipEntry.DEFLATED);
+      warOut.close();
+      addEntry(out, "app.war", war.toByteArray(), ZipEntry.DEFLATED);
+      out.close();
+
+      MappedJarClasspathRoot root =
+          new MappedJarClasspathRoot(boot.toURI().toURL());
+      assertNotNull(root.getResourceAsStream(path + "p1/HingletonOne.class"));
+
+      SingletonDetector detector =
+          new SingletonDetector(boot.getPath(), path, new Flags());
+      Clazz singletonOne =
+          detector.getClass(SingletonOne.class.getName().replace('.', '/'));
+      Clazz singletonUserOne = detector.getClass(
+          SingletonUserOne.class.getName().replace('.', '/'));
+      Clazz hingletonOne =
+          detector.getClass(HingletonOne.class.getName().replace('.', '/'));
+      Clazz hingletonUserOne = detector.getClass(
+          HingletonUserOne.class.getName().replace('.', '/'));
+      assertTrue(singletonUserOne.uses(singletonOne));
+      assertTrue(hingletonUserOne.uses(hingletonOne));
+    } finally {
+      boot.delete();
+    }
+  }
+
+  public void testPoolBoundsOpenArchives() throws IOException {
+    File other = File.createTempFile("other", ".jar");
+    try {
+      FileOutputStream out = new FileOutputStream(other);
+      out.write(archiveOf(path + "p2/"));
+      out.close();
+
+      ArchivePool pool = new ArchivePool(1);
+      final MappedJarClasspathRoot root =
+          new MappedJarClasspathRoot(jar.toURI().toURL(), pool);
+      final MappedJarClasspathRoot otherRoot =
+          new MappedJarClasspathRoot(other.toURI().toURL(), pool);
+      assertEquals(1, pool.getOpenCount());
+
+      // Evicted archives are reopened on demand
+      assertNotNull(root.getResourceAsStream(path + "p1/HingletonOne.class"));
+      assertNotNull(
+          otherRoot.getResourceAsStream(path + "p2/SingletonOne.class"));
+      assertEquals(1, pool.getOpenCount());
+
+      // An archive evicted while it is being read stays open until released
+      final List<String> visited = new ArrayList<String>();
+      root.accept(new ClassFileVisitor() {
+        public boolean wantsPackage(String packagePath) {
+          return true;
+        }
+
+        public boolean wantsClassFile(String resourceName) {
+          return true;
+        }
+
+        public void visitClassFile(String resourceName, byte[] bytes) {
+          if (visited.isEmpty()) {
+            assertNotNull(otherRoot.getResourceAsStream(
+                path + "p2/SingletonOne.class"));
+          }
+          visited.add(resourceName);
+        }
+      });
+      assertTrue(visited.contains(path + "p3/HingletonUserOne.class"));
+      assertEquals(1, pool.getOpenCount());
+
+      root.close();
+      otherRoot.close();
+      assertEquals(0, pool.getOpenCount());
+    } finally {
+      other.delete();
+    }
+  }
+
+  public void testEvictedArchivesAreUnmapped() throws IOException {
+    File maps = new File("/proc/self/maps");
+    if (!maps.canRead()) {
+      // Mappings can only be seen on Linux
+      return;
+    }
+    File other = File.createTempFile("other", ".jar");
+    try {
+      FileOutputStream out = new FileOutputStream(other);
+      out.write(archiveOf(path + "p2/"));
+      out.close();
+
+      ArchivePool pool = new ArchivePool(1);
+      MappedJarClasspathRoot root =
+          new MappedJarClasspathRoot(jar.toURI().toURL(), pool);
+      assertTrue(new String(read(maps), "UTF-8").contains(jar.getPath()));
+      MappedJarClasspathRoot otherRoot =
+          new MappedJarClasspathRoot(other.toURI().toURL(), pool);
+      assertFalse(new String(read(maps), "UTF-8").contains(jar.getPath()));
+      root.close();
+      otherRoot.close();
+      assertFalse(new String(read(maps), "UTF-8").contains(other.getPath()));
+    } finally {
+      other.delete();
+    }
+  }
+
+  public void testMultiReleaseJarReadsOneVersionOfEachClass()
+      throws IOException {
+    String singletonOne = path + "p2/SingletonOne.class";
+    String singletonUserOne = path + "p2/SingletonUserOne.class";
+    byte[] original = read(new File(CLASSES, singletonOne));
+    ClassWriter stripped = new ClassWriter(0);
+    new ClassReader(original).accept(stripped, ClassReader.SKIP_DEBUG);
+
+    File multiRelease = File.createTempFile("multi", ".jar");
+    try {
+      ZipOutputStream out =
+          new ZipOutputStream(new FileOutputStream(multiRelease));
+      addEntry(out, "META-INF/MANIFEST.MF",
+          "Manifest-Version: 1.0\r\nMulti-Release: true\r\n".getBytes("UTF-8"),
+          ZipEntry.DEFLATED);
+      addEntry(out, singletonOne, stripped.toByteArray(), ZipEntry.DEFLATED);
+      addEntry(out, "META-INF/versions/9/" + singletonOne, original,
+          ZipEntry.DEFLATED);
+      addEntry(out, "META-INF/versions/11/" + singletonUserOne,
+          read(new File(CLASSES, singletonUserOne)), ZipEntry.STORED);
+      out.close();
+
+      URL url = multiRelease.toURI().toURL();
+      ArchivePool pool = new ArchivePool(ArchivePool.DEFAULT_CAPACITY);
+      for (ClasspathRoot[] roots : new ClasspathRoot[][] {
+          {new MappedJarClasspathRoot(url, pool, 11),
+              new MappedJarClasspathRoot(url, pool, 8)},
+          {new JarClasspathRoot(url, 11), new JarClasspathRoot(url, 8)}}) {
+        try {
+          Map<String, byte[]> visited = visitAll(roots[0]);
+          assertEquals(roots[0].toString(), 2, visited.size());
+          assertTrue(Arrays.equals(original, visited.get(singletonOne)));
+          assertTrue(visited.containsKey(singletonUserOne));
+
+          // Another root on the same archive reads for its own release
+          visited = visitAll(roots[1]);
+          assertEquals(1, visited.size());
+          assertTrue(Arrays.equals(stripped.toByteArray(),
+              visited.get(singletonOne)));
+        } finally {
+          roots[0].close();
+          roots[1].close();
+        }
+      }
+    } finally {
+      multiRelease.delete();
+    }
+  }
+
+  public void testJarFileFallbackNamesWarClassesLikeTheMappedRoot()
+      throws IOException {
+    File war = File.createTempFile("web", ".war");
+    try {
+      ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war));
+      addDirectory(out, "WEB-INF/classes/", path + "p1/", ZipEntry.DEFLATED);
+      out.close();
+
+      URL url = war.toURI().toURL();
+      ClasspathRoot mapped = new MappedJarClasspathRoot(url);
+      ClasspathRoot fallback = new JarClasspathRoot(url);
+      try {
+        String hingletonOne = path + "p1/HingletonOne.class";
+        Map<String, byte[]> visited = visitAll(fallback);
+        assertTrue(visited.containsKey(hingletonOne));
+        assertEquals(visitAll(mapped).keySet(), visited.keySet());
+        assertTrue(Arrays.equals(visited.get(hingletonOne),
+            read(fallback.getResourceAsStream(hingletonOne))));
+      } finally {
+        mapped.close();
+        fallback.close();
+      }
+    } finally {
+      war.delete();
+    }
+  }
+
+  private Map<String, byte[]> visitAll(ClasspathRoot root) throws IOException {
+    final Map<String, byte[]> visited = new HashMap<String, byte[]>();
+    root.accept(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return true;
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        assertNull(resourceName, visited.put(resourceName, bytes));
+      }
+    });
+    return visited;
+  }
+
+  public void testDetectsSingletonsInsideJar() throws IOException {
+    Flags flags = new Flags();
+    SingletonDetector detector =
+        new SingletonDetector(jar.getPath(), path, flags);
+    Clazz singletonOne =
+        detector.getClass(SingletonOne.class.getName().replace('.', '/'));
+    Clazz singletonUserOne =
+        detector.getClass(SingletonUserOne.class.getName().replace('.', '/'));
+    assertTrue(singletonOne.isSingleton());
+    assertTrue(singletonUserOne.uses(singletonOne));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.ClasspathRoot;
+import com.google.singletondetector.classpath.ClasspathRoots;
+import com.google.singletondetector.classpath.CompositeClasspathRoot;
+import com.google.singletondetector.classpath.JrtClasspathRoot;
+import com.google.singletondetector.classpath.ModuleFilter;
+import com.google.singletondetector.p2.SingletonOne;
+import com.google.singletondetector.p2.SingletonUserOne;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ModuleClasspathRootTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  private List<String> scan(ClasspathRoot root) throws IOException {
+    final List<String> visited = new ArrayList<String>();
+    root.accept(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return true;
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        visited.add(resourceName);
+      }
+    });
+    return visited;
+  }
+
+  public void testModuleFilter() {
+    ModuleFilter filter = new ModuleFilter(Arrays.asList("java.*", "jdk.jfr"),
+        Arrays.asList("java.desktop"));
+    assertTrue(filter.accepts("java.base"));
+    assertTrue(filter.accepts("jdk.jfr"));
+    assertFalse(filter.accepts("java.desktop"));
+    assertFalse(filter.accepts("jdk.compiler"));
+    assertTrue(ModuleFilter.ALL.accepts("jdk.compiler"));
+  }
+
+  public void testRunningImageReadsOnlyIncludedModules() throws IOException {
+    JrtClasspathRoot root;
+    try {
+      root = new JrtClasspathRoot(new ModuleFilter(
+          Collections.singletonList("java.logging"),
+          Collections.<String>emptyList()));
+    } catch (IOException e) {
+      // Running on a JVM without modules
+      return;
+    }
+    List<String> visited = scan(root);
+    assertTrue(visited.contains("java/util/logging/Logger.class"));
+    assertFalse(visited.contains("java/lang/Object.class"));
+    assertNotNull(root.getResourceAsStream("java/util/logging/Level.class"));
+    assertTrue(root.getResources("java/util/logging/").contains(
+        "Logger.class"));
+  }
+
+  public void testOnlyTheExactJrtTokenNamesTheImage() throws IOException {
+    if (!File.pathSeparator.equals(":")) {
+      return;
+    }
+    String classes = ArchiveFixtures.CLASSES.getAbsolutePath();
+
+    // A directory called jrt followed by an absolute path is two entries
+    assertTrue(ClasspathRoots.forPath("jrt:" + classes)
+        instanceof CompositeClasspathRoot);
+    assertTrue(ClasspathRoots.forPath("jrt:/:" + classes)
+        instanceof CompositeClasspathRoot);
+    try {
+      assertTrue(ClasspathRoots.forPath("jrt:/") instanceof JrtClasspathRoot);
+    } catch (IOException e) {
+      // Running on a JVM without modules
+    }
+  }
+
+  public void testJmod() throws IOException {
+    File dir = File.createTempFile("jmods", "");
+    dir.delete();
+    dir.mkdir();
+    File jmod = new File(dir, "p2.jmod");
+    try {
+      OutputStream file = new FileOutputStream(jmod);
+      file.write(new byte[] {'J', 'M', 1, 0});
+      ZipOutputStream out = new ZipOutputStream(file);
+      ArchiveFixtures.addDirectory(out, "classes/", path + "p2/",
+          ZipEntry.DEFLATED);
+      out.close();
+
+      SingletonDetector detector =
+          new SingletonDetector(jmod.getPath(), path, new Flags());
+      Clazz singletonOne =
+          detector.getClass(SingletonOne.class.getName().replace('.', '/'));
+      Clazz singletonUserOne = detector.getClass(
+          SingletonUserOne.class.getName().replace('.', '/'));
+      assertTrue(singletonUserOne.uses(singletonOne));
+
+      // A jmod inside a directory is skipped when its module is excluded
+      ModuleFilter excludeP2 = new ModuleFilter(
+          Collections.<String>emptyList(), Collections.singletonList("p2"));
+      assertFalse(scan(ClasspathRoots.forPath(dir.getPath())).isEmpty());
+      assertTrue(scan(ClasspathRoots.forPath(dir.getPath(), excludeP2))
+          .isEmpty());
+    } finally {
+      jmod.delete();
+      dir.delete();
+    }
+  }
+}
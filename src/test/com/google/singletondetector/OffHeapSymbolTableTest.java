@@ -0,0 +1,143 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+public class OffHeapSymbolTableTest extends TestCase {
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testInternsNames() {
+    for (Memory memory : new Memory[] {Memory.HEAP, Memory.offHeap()}) {
+      SymbolTable symbols = new OffHeapSymbolTable(memory);
+      int name = symbols.intern("com/acme/Foo");
+      int desc = symbols.intern("()Lcom/acme/Foo;");
+      int empty = symbols.intern("");
+      int unicode = symbols.intern("caf\u00e9\u03bb\ud83d\ude00");
+      assertEquals(name, symbols.intern("com/acme/Foo"));
+      assertEquals(desc, symbols.find("()Lcom/acme/Foo;"));
+      assertEquals(-1, symbols.find("com/acme/Fo"));
+      assertEquals("com/acme/Foo", symbols.name(name));
+      assertEquals("()Lcom/acme/Foo;", symbols.name(desc));
+      assertEquals("", symbols.name(empty));
+      assertEquals("caf\u00e9\u03bb\ud83d\ude00", symbols.name(unicode));
+      assertEquals(4, symbols.size());
+    }
+  }
+
+  public void testGrowsPastChunks() {
+    SymbolTable symbols = new OffHeapSymbolTable(Memory.HEAP);
+    SymbolTable expected = new HeapSymbolTable();
+    int count = 4 * Memory.HEAP.getChunkSize();
+    for (int i = 0; i < count; i++) {
+      String name = "p" + (i % 7) + "/C" + i;
+      assertEquals(expected.intern(name), symbols.intern(name));
+    }
+    for (int i = 0; i < count; i += 97) {
+      String name = "p" + (i % 7) + "/C" + i;
+      assertEquals(i, symbols.find(name));
+      assertEquals(name, symbols.name(i));
+    }
+    assertEquals(count, symbols.size());
+  }
+
+  public void testConcurrentInterning() throws InterruptedException {
+    final SymbolTable symbols = new OffHeapSymbolTable(Memory.HEAP);
+    final int count = 2 * Memory.HEAP.getChunkSize();
+    final int[][] ids = new int[4][count];
+    Thread[] threads = new Thread[ids.length];
+    for (int t = 0; t < threads.length; t++) {
+      final int[] found = ids[t];
+      final int offset = t * 1000;
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          // Each thread interns the same names, starting at a different one
+          for (int i = 0; i < count; i++) {
+            int n = (i + offset) % count;
+            found[n] = symbols.intern("p/C" + n);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(count, symbols.size());
+    for (int n = 0; n < count; n++) {
+      for (int[] found : ids) {
+        assertEquals(ids[0][n], found[n]);
+      }
+      assertEquals("p/C" + n, symbols.name(ids[0][n]));
+      assertEquals(ids[0][n], symbols.find("p/C" + n));
+    }
+  }
+
+  public void testMappedChunksAreUnmapped() throws IOException {
+    File maps = new File("/proc/self/maps");
+    if (!maps.canRead()) {
+      // Mappings can only be seen on Linux
+      return;
+    }
+    Set<String> before = mappedChunks(maps);
+    Memory memory = Memory.offHeap();
+    IntColumn freed = new IntColumn(memory);
+    freed.ensureCapacity(memory.getChunkSize());
+    IntColumn kept = new IntColumn(memory);
+    kept.ensureCapacity(2 * memory.getChunkSize());
+    SymbolTable symbols = new OffHeapSymbolTable(memory);
+    symbols.intern("com/acme/Foo");
+    Set<String> mapped = mappedChunks(maps);
+    mapped.removeAll(before);
+    assertTrue(mapped.toString(), mapped.size() >= 4);
+
+    // A column freed on its own gives back its chunk at once
+    freed.free();
+    Set<String> left = mappedChunks(maps);
+    left.retainAll(mapped);
+    assertEquals(mapped.size() - 1, left.size());
+
+    // The rest go once the memory is closed
+    memory.close();
+    left = mappedChunks(maps);
+    left.retainAll(mapped);
+    assertTrue(left.toString(), left.isEmpty());
+  }
+
+  /**
+   * Returns the files of every chunk of off-heap memory mapped at present.
+   */
+  private Set<String> mappedChunks(File maps) throws IOException {
+    Set<String> chunks = new HashSet<String>();
+    String[] lines = new String(ArchiveFixtures.read(maps), "UTF-8")
+        .split("\n");
+    for (String line : lines) {
+      int start = line.indexOf('/');
+      if (start >= 0 && line.contains("singletondetector")) {
+        chunks.add(line.substring(start));
+      }
+    }
+    return chunks;
+  }
+}
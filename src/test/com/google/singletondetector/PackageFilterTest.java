@@ -0,0 +1,140 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.ClasspathRoot;
+import com.google.singletondetector.classpath.ClasspathRoots;
+import com.google.singletondetector.classpath.PackageFilter;
+import com.google.singletondetector.p1.HingletonOne;
+import com.google.singletondetector.p2.SingletonOne;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class PackageFilterTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  private PackageFilter filter(String[] includes, String... excludes) {
+    return new PackageFilter(Arrays.asList(includes), Arrays.asList(excludes));
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testIncludesAndExcludes() {
+    PackageFilter filter = filter(new String[] {"com.acme", "org/*/api"},
+        "com.acme.vendor.**");
+    assertTrue(filter.acceptsClass("com/acme/Foo.class"));
+    assertTrue(filter.acceptsClass("com/acme/core/Foo.class"));
+    assertTrue(filter.acceptsClass("org/shop/api/v1/Foo.class"));
+    assertFalse(filter.acceptsClass("com/acme/vendor/Foo.class"));
+    assertFalse(filter.acceptsClass("com/acmex/Foo.class"));
+    assertFalse(filter.acceptsClass("org/shop/Foo.class"));
+    assertFalse(filter.acceptsClass("Foo.class"));
+
+    assertTrue(PackageFilter.ALL.acceptsClass("Foo.class"));
+    assertTrue(filter(new String[0], "com.acme").acceptsClass("Foo.class"));
+  }
+
+  public void testPackagesArePrunedBeforeListing() {
+    PackageFilter filter = filter(new String[] {"com.acme", "org/*/api"},
+        "com.acme.vendor");
+    assertTrue(filter.acceptsPackage(""));
+    assertTrue(filter.acceptsPackage("com/"));
+    assertTrue(filter.acceptsPackage("com/acme/util/"));
+    assertTrue(filter.acceptsPackage("org/shop/"));
+    assertTrue(filter.acceptsPackage("org/shop/api/"));
+    assertFalse(filter.acceptsPackage("com/acme/vendor/"));
+    assertFalse(filter.acceptsPackage("com/acme/vendor/lib/"));
+    assertFalse(filter.acceptsPackage("net/"));
+    assertFalse(filter.acceptsPackage("org/shop/impl/"));
+  }
+
+  public void testExcludedPackagesAreNeverListed() throws IOException {
+    // Records every class name the directory walk offers
+    final List<String> offered = new ArrayList<String>();
+    final ClasspathRoot classes =
+        ClasspathRoots.forPath(ArchiveFixtures.CLASSES.getPath());
+    ClasspathRoot root = new ClasspathRoot() {
+      public InputStream getResourceAsStream(String resourceName) {
+        return classes.getResourceAsStream(resourceName);
+      }
+
+      public Collection<String> getResources(String packageName) {
+        return classes.getResources(packageName);
+      }
+
+      public void accept(final ClassFileVisitor visitor) throws IOException {
+        classes.accept(new ClassFileVisitor() {
+          public boolean wantsPackage(String packagePath) {
+            return visitor.wantsPackage(packagePath);
+          }
+
+          public boolean wantsClassFile(String resourceName) {
+            offered.add(resourceName);
+            return visitor.wantsClassFile(resourceName);
+          }
+
+          public void visitClassFile(String resourceName, byte[] bytes) {
+            visitor.visitClassFile(resourceName, bytes);
+          }
+        });
+      }
+
+      public void close() throws IOException {
+        classes.close();
+      }
+    };
+
+    final List<String> read = new ArrayList<String>();
+    ClassSource source = new ClasspathClassSource(root, path,
+        filter(new String[0], path + "p2"), false);
+    source.accept(new ClassSourceVisitor() {
+      public void visitClass(ClassReader cr, byte[] classFile) {
+        read.add(cr.getClassName());
+      }
+    });
+    source.close();
+
+    assertTrue(read.contains(path + "p1/HingletonOne"));
+    for (String resourceName : offered) {
+      assertTrue(resourceName, resourceName.startsWith(path));
+      assertFalse(resourceName, resourceName.startsWith(path + "p2/"));
+    }
+  }
+
+  public void testDetectorSkipsExcludedPackages() throws IOException {
+    Flags flags = new Flags();
+    flags.addExcludedPackage("com.google.singletondetector.p2");
+    SingletonDetector detector = new SingletonDetector(
+        ArchiveFixtures.CLASSES.getPath(), path, flags);
+    assertNotNull(
+        detector.getClass(HingletonOne.class.getName().replace('.', '/')));
+    assertNull(
+        detector.getClass(SingletonOne.class.getName().replace('.', '/')));
+  }
+}
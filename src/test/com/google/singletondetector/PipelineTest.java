@@ -0,0 +1,192 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import static com.google.singletondetector.ArchiveFixtures.*;
+
+import com.google.singletondetector.p2.SingletonOne;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineTest extends TestCase {
+  private byte[] classFile;
+  private ClassReader cr;
+
+  @Override
+  protected void setUp() throws IOException {
+    String resourceName = SingletonOne.class.getName().replace('.', '/');
+    classFile = read(new File(CLASSES, resourceName + ".class"));
+    cr = new ClassReader(classFile);
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testEveryClassIsParsedAndAggregatedOnce() {
+    final AtomicInteger parsed = new AtomicInteger();
+    final AtomicInteger aggregated = new AtomicInteger();
+    final AtomicInteger maxQueued = new AtomicInteger();
+    Pipeline pipeline = new Pipeline(3, 2, new Pipeline.Parser() {
+      public ClassContext parse(ClassReader cr) {
+        int queued = parsed.incrementAndGet() - aggregated.get();
+        while (true) {
+          int max = maxQueued.get();
+          if (queued <= max || maxQueued.compareAndSet(max, queued)) {
+            break;
+          }
+        }
+        return new ClassContext(null,
+            new CallSites(new HeapSymbolTable()), ClassPrefilter.FULL);
+      }
+    }, new Pipeline.Aggregator() {
+      public void aggregate(ClassContext context) {
+        aggregated.incrementAndGet();
+      }
+    });
+    pipeline.start();
+    for (int i = 0; i < 1000; i++) {
+      pipeline.put(cr, classFile);
+    }
+    pipeline.finish();
+    assertEquals(1000, parsed.get());
+    assertEquals(1000, aggregated.get());
+
+    // Three being parsed, two queued, and one being aggregated
+    assertTrue(String.valueOf(maxQueued.get()), maxQueued.get() <= 6);
+    assertTrue(pipeline.getReport(),
+        pipeline.getReport().startsWith("Pipeline: 1000 classes"));
+  }
+
+  public void testBytesHeldAreBounded() {
+    final int size = classFile.length;
+    final AtomicInteger held = new AtomicInteger();
+    final AtomicInteger maxHeld = new AtomicInteger();
+    Pipeline pipeline = new Pipeline(3, 100, 2 * size, new Pipeline.Parser() {
+      public ClassContext parse(ClassReader cr) {
+        int bytes = held.addAndGet(size);
+        while (true) {
+          int max = maxHeld.get();
+          if (bytes <= max || maxHeld.compareAndSet(max, bytes)) {
+            break;
+          }
+        }
+        Thread.yield();
+        held.addAndGet(-size);
+        return new ClassContext(null,
+            new CallSites(new HeapSymbolTable()), ClassPrefilter.FULL);
+      }
+    }, new Pipeline.Aggregator() {
+      public void aggregate(ClassContext context) {
+      }
+    });
+    pipeline.start();
+    for (int i = 0; i < 1000; i++) {
+      pipeline.put(cr, classFile);
+    }
+    pipeline.finish();
+
+    // However many parsers, only two classes' bytes are let through at once
+    assertTrue(String.valueOf(maxHeld.get()), maxHeld.get() <= 2 * size);
+    assertTrue(pipeline.getReport(), pipeline.getReport().contains("held:"));
+
+    // A class larger than the ceiling is let through alone
+    pipeline = new Pipeline(2, 10, size / 2, new Pipeline.Parser() {
+      public ClassContext parse(ClassReader cr) {
+        return new ClassContext(null,
+            new CallSites(new HeapSymbolTable()), ClassPrefilter.FULL);
+      }
+    }, new Pipeline.Aggregator() {
+      public void aggregate(ClassContext context) {
+      }
+    });
+    pipeline.start();
+    for (int i = 0; i < 10; i++) {
+      pipeline.put(cr, classFile);
+    }
+    pipeline.finish();
+  }
+
+  public void testFailureIsRethrown() {
+    Pipeline pipeline = new Pipeline(2, 1, new Pipeline.Parser() {
+      public ClassContext parse(ClassReader cr) {
+        throw new IllegalStateException("parse failed");
+      }
+    }, new Pipeline.Aggregator() {
+      public void aggregate(ClassContext context) {
+        fail();
+      }
+    });
+    pipeline.start();
+    // Far more classes than the queue holds, which must not block for ever
+    for (int i = 0; i < 100; i++) {
+      pipeline.put(cr, classFile);
+    }
+    try {
+      pipeline.finish();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("parse failed", e.getMessage());
+    }
+  }
+
+  public void testAbortDropsQueuedClassesAndThrowsNothing() {
+    final AtomicInteger aggregated = new AtomicInteger();
+    Pipeline pipeline = new Pipeline(2, 100, new Pipeline.Parser() {
+      public ClassContext parse(ClassReader cr) {
+        throw new IllegalStateException("parse failed");
+      }
+    }, new Pipeline.Aggregator() {
+      public void aggregate(ClassContext context) {
+        aggregated.incrementAndGet();
+      }
+    });
+    pipeline.start();
+    for (int i = 0; i < 100; i++) {
+      pipeline.put(cr, classFile);
+    }
+    // The reader's own failure is the one to report, not the parser's
+    pipeline.abort();
+    assertEquals(0, aggregated.get());
+  }
+
+  public void testThreadsAndQueueMustBeAtLeastOne() {
+    Pipeline.Parser parser = new Pipeline.Parser() {
+      public ClassContext parse(ClassReader cr) {
+        return null;
+      }
+    };
+    Pipeline.Aggregator aggregator = new Pipeline.Aggregator() {
+      public void aggregate(ClassContext context) {
+      }
+    };
+    int[][] invalid = {{0, 1, 0}, {1, 0, 0}, {1, 1, -1}};
+    for (int[] args : invalid) {
+      try {
+        new Pipeline(args[0], args[1], args[2], parser, aggregator);
+        fail();
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
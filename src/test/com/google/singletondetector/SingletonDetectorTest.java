@@ -20,6 +20,7 @@ import com.google.singletondetector.Flags;
 import com.google.singletondetector.SingletonDetector;
 import com.google.singletondetector.classpath.ClasspathRoot;
 import com.google.singletondetector.classpath.DirectoryClasspathRoot;
+import com.google.singletondetector.classpath.TarClasspathRoot;
 import com.google.singletondetector.p1.FingletonOne;
 import com.google.singletondetector.p1.FingletonUserOne;
 import com.google.singletondetector.p1.HingletonOne;
@@ -38,11 +39,27 @@ import com.google.singletondetector.p3.SingletonUserTwo;
 
 import junit.framework.TestCase;
 
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class SingletonDetectorTest extends TestCase {
   // The SingletonDetector which is to be tested
@@ -109,6 +126,17 @@ public class SingletonDetectorTest extends TestCase {
     assertTrue(cl.isSingleton());
   }
 
+  public void testStaticFieldsByType() {
+    detector =
+        new SingletonDetector(root, path,
+            getAsmStyleClassName(SingletonOne.class));
+    Clazz cl = detector.getClass(getAsmStyleClassName(SingletonOne.class));
+    SymbolTable symbols = detector.getSymbols();
+    assertEquals(Arrays.asList("inst"),
+        cl.getStaticFields(symbols.find(cl.getName())));
+    assertTrue(cl.getStaticFields(symbols.intern("p2/Missing")).isEmpty());
+  }
+
   public void testIsSingletonOnAHingleton() {
     detector =
         new SingletonDetector(root, path,
@@ -161,6 +189,102 @@ public class SingletonDetectorTest extends TestCase {
     assertTrue(singletonUserTwo.uses(singletonOne));
   }
 
+  public void testInvokestaticMakesAnEdge() throws IOException {
+    // A class whose only use of the singleton is an INVOKESTATIC, so the
+    // edge can come from nothing else
+    String caller = path + "p2/StaticCaller";
+    String singleton = getAsmStyleClassName(SingletonOne.class);
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, caller, null,
+        "java/lang/Object", null);
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC
+        | Opcodes.ACC_STATIC, "call", "()V", null, null);
+    mv.visitCode();
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, singleton, "getInst",
+        "()L" + singleton + ";", false);
+    mv.visitInsn(Opcodes.POP);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    byte[] callerBytes = cw.toByteArray();
+
+    for (boolean useAsmForCode : new boolean[] {false, true}) {
+      Flags flags = new Flags();
+      flags.setUseAsmForCode(useAsmForCode);
+      detector = new SingletonDetector(Arrays.asList(
+          new ClassReader(callerBytes),
+          new ClassReader(root.getResourceAsStream(singleton + ".class"))),
+          path, flags);
+      assertTrue(detector.getClass(caller).uses(
+          detector.getClass(singleton)));
+    }
+  }
+
+  public void testEachCallTargetIsClassifiedOnce() {
+    // Two classes call the same static method and read the same static
+    // field from several methods; a call to a class which is not used
+    // is classified too
+    SymbolTable symbols = new HeapSymbolTable();
+    final int userOne = symbols.intern("p/UserOne");
+    final int userTwo = symbols.intern("p/UserTwo");
+    final int used = symbols.intern("p/Used");
+    final int unused = symbols.intern("p/Unused");
+    int getUsed = symbols.intern("()Lp/Used;");
+    int call = used << 1 | CallSites.INVOKE_STATIC;
+    int field = used << 1 | CallSites.FIELD_INSTRUCTION;
+    int otherCall = unused << 1 | CallSites.INVOKE_STATIC;
+    int[] userOneSites = {
+        call, getUsed, 1, 3, otherCall, getUsed, 1, 2,
+        call, getUsed, 2, 1, field, -1, 2, 1};
+    int[] userTwoSites = {call, getUsed, 1, 2};
+
+    for (boolean asAdded : new boolean[] {false, true}) {
+      final List<String> classified =
+          Collections.synchronizedList(new ArrayList<String>());
+      final int[] uses = new int[2];
+      CallSites.Resolver resolver = new CallSites.Resolver() {
+        public int classifyInvokeStatic(int owner, int desc) {
+          classified.add("call " + owner + " " + desc);
+          return owner == used ? used : -1;
+        }
+
+        public int classifyFieldInstruction(int owner) {
+          classified.add("field " + owner);
+          return owner == used ? used : -1;
+        }
+
+        public int getClass(int classId) {
+          return classId;
+        }
+
+        public void use(int user, int usedClass, boolean invokeStatic,
+            int method, int count) {
+          // Every cached verdict is the one the resolver would give
+          assertEquals(used, usedClass);
+          synchronized (uses) {
+            uses[user == userOne ? 0 : 1] += count;
+          }
+        }
+      };
+      CallSites callSites = new CallSites(symbols);
+      if (asAdded) {
+        callSites.resolveAsAdded(resolver);
+      }
+      callSites.add(userOne, userOneSites, userOneSites.length);
+      callSites.add(userTwo, userTwoSites, userTwoSites.length);
+      if (!asAdded) {
+        assertEquals(3, callSites.getTargetCount());
+        callSites.resolve(new ForkJoinPool(2), resolver);
+      }
+
+      assertEquals(3, classified.size());
+      assertEquals(3, new HashSet<String>(classified).size());
+      assertEquals(5, uses[0]);
+      assertEquals(2, uses[1]);
+    }
+  }
+
   /*************************************************************************/
   /*                           HINGLETON TESTS                             */
   /*************************************************************************/
@@ -370,6 +494,120 @@ public class SingletonDetectorTest extends TestCase {
     assertFalse(cl.isDrawn());
   }
 
+  public void testDirectoryScan() throws IOException {
+    detector = new SingletonDetector("target/test-classes", path, new Flags());
+    Clazz singletonOne =
+        detector.getClass(getAsmStyleClassName(SingletonOne.class));
+    Clazz singletonUserOne =
+        detector.getClass(getAsmStyleClassName(SingletonUserOne.class));
+    assertTrue(singletonOne.isSingleton());
+    assertTrue(singletonUserOne.uses(singletonOne));
+    assertNull(detector.getClass(getAsmStyleClassName(EnumClass.class)));
+  }
+
+  public void testDuplicateAndConflictingCopies() throws IOException {
+    // The same SingletonOne twice, then a copy without debug information
+    ClassReader singletonOne = new ClassReader(
+        root.getResourceAsStream(getAsmStyleClassName(SingletonOne.class)
+            + ".class"));
+    ClassWriter stripped = new ClassWriter(0);
+    singletonOne.accept(stripped, ClassReader.SKIP_DEBUG);
+    ClassReader singletonUserOne = new ClassReader(
+        root.getResourceAsStream(getAsmStyleClassName(SingletonUserOne.class)
+            + ".class"));
+    List<ClassReader> classes = Arrays.asList(singletonOne,
+        new ClassReader(singletonOne.b), new ClassReader(stripped.toByteArray()),
+        singletonUserOne);
+
+    Flags flags = new Flags();
+    flags.setShowStats(true);
+    detector = new SingletonDetector(classes, path, flags);
+    Clazz cl = detector.getClass(getAsmStyleClassName(SingletonOne.class));
+    assertTrue(cl.isSingleton());
+    assertTrue(detector.getClass(getAsmStyleClassName(SingletonUserOne.class))
+        .uses(cl));
+    assertEquals(Collections.singleton(
+        getAsmStyleClassName(SingletonOne.class)), detector.getConflicts());
+    assertTrue(detector.getOutput(false).contains(
+        "Duplicate copies skipped: 2 (1 classes with differing copies)"));
+  }
+
+  public void testCopiesInLaterJarsAreCompared() throws IOException {
+    // Both jars hold SingletonOne and SingletonUserOne, but the second jar's
+    // SingletonOne has no debug information
+    String singletonOne = getAsmStyleClassName(SingletonOne.class) + ".class";
+    String singletonUserOne =
+        getAsmStyleClassName(SingletonUserOne.class) + ".class";
+    byte[] original = ArchiveFixtures.read(root.getResourceAsStream(
+        singletonOne));
+    ClassWriter stripped = new ClassWriter(0);
+    new ClassReader(original).accept(stripped, ClassReader.SKIP_DEBUG);
+    byte[] user = ArchiveFixtures.read(root.getResourceAsStream(
+        singletonUserOne));
+    File first = File.createTempFile("first", ".jar");
+    File second = File.createTempFile("second", ".jar");
+    try {
+      ZipOutputStream out = new ZipOutputStream(new FileOutputStream(first));
+      ArchiveFixtures.addEntry(out, singletonOne, original, ZipEntry.DEFLATED);
+      ArchiveFixtures.addEntry(out, singletonUserOne, user, ZipEntry.DEFLATED);
+      out.close();
+      out = new ZipOutputStream(new FileOutputStream(second));
+      ArchiveFixtures.addEntry(out, singletonOne, stripped.toByteArray(),
+          ZipEntry.DEFLATED);
+      ArchiveFixtures.addEntry(out, singletonUserOne, user, ZipEntry.DEFLATED);
+      out.close();
+
+      String classpath = first.getPath() + File.pathSeparator
+          + second.getPath();
+      for (boolean rereadsClasses : new boolean[] {false, true}) {
+        Flags flags = new Flags();
+        flags.setShowStats(true);
+        flags.setRereadsClasses(rereadsClasses);
+        detector = new SingletonDetector(classpath, path, flags);
+        Clazz cl = detector.getClass(getAsmStyleClassName(SingletonOne.class));
+        assertTrue(cl.isSingleton());
+        assertTrue(detector.getClass(
+            getAsmStyleClassName(SingletonUserOne.class)).uses(cl));
+        assertEquals(Collections.singleton(
+            getAsmStyleClassName(SingletonOne.class)), detector.getConflicts());
+        assertTrue(detector.getOutput(false).contains(
+            "Duplicate copies skipped: 2 (1 classes with differing copies)"));
+      }
+    } finally {
+      first.delete();
+      second.delete();
+    }
+  }
+
+  public void testUsesOfClassesReadLaterAreResolved() throws IOException {
+    // Each user is read before the class it uses, which is only classified
+    // as a singleton or hingleton once the user's sites have been recorded
+    List<ClassReader> usersFirst = new ArrayList<ClassReader>();
+    for (Class<?> clazz : new Class<?>[] {SingletonUserOne.class,
+        HingletonUserOne.class, SingletonOne.class, HingletonOne.class}) {
+      usersFirst.add(new ClassReader(root.getResourceAsStream(
+          getAsmStyleClassName(clazz) + ".class")));
+    }
+    List<ClassReader> usedFirst = new ArrayList<ClassReader>(usersFirst);
+    Collections.reverse(usedFirst);
+
+    detector = new SingletonDetector(usersFirst, path, new Flags());
+    Clazz singletonOne =
+        detector.getClass(getAsmStyleClassName(SingletonOne.class));
+    Clazz hingletonOne =
+        detector.getClass(getAsmStyleClassName(HingletonOne.class));
+    assertTrue(singletonOne.isSingleton());
+    assertTrue(detector.getClass(getAsmStyleClassName(SingletonUserOne.class))
+        .uses(singletonOne));
+    assertTrue(detector.getClass(getAsmStyleClassName(HingletonUserOne.class))
+        .uses(hingletonOne));
+    String graphMlOutput = detector.getGraphMlOutput();
+    assertTrue(graphMlOutput.contains("<edge"));
+    assertEquals(
+        new SingletonDetector(usedFirst, path, new Flags()).getGraphMlOutput(),
+        graphMlOutput);
+  }
+
   public void testGraphMlOutput() throws IOException {
     detector =
         new SingletonDetector(root, path,
@@ -382,4 +620,142 @@ public class SingletonDetectorTest extends TestCase {
     String graphMlOutput = detector.getGraphMlOutput();
     assertEquals(read("GraphMLOutput.out"), graphMlOutput);
   }
+
+  public void testOutputIndependentOfParallelism() throws IOException {
+    // The test classes, and ASM's own for a graph with many edges
+    String classpath = "target/test-classes" + File.pathSeparator
+        + ClassReader.class.getProtectionDomain().getCodeSource()
+            .getLocation().getPath();
+    String expected = null;
+    for (int parallelism : new int[] {1, 2, 8}) {
+      Flags flags = new Flags();
+      flags.setShowStats(true);
+      flags.setParallelism(parallelism);
+      detector = new SingletonDetector(classpath, "", flags);
+      String output = detector.getOutput(false) + detector.getGraphMlOutput();
+      if (expected == null) {
+        expected = output;
+        assertTrue(output.contains("<edge"));
+      } else {
+        assertEquals("parallelism " + parallelism, expected, output);
+      }
+    }
+  }
+
+  public void testOffHeapModelGivesSameOutput() throws IOException {
+    String classpath = "target/test-classes" + File.pathSeparator
+        + ClassReader.class.getProtectionDomain().getCodeSource()
+            .getLocation().getPath();
+    Flags flags = new Flags();
+    flags.setShowStats(true);
+    detector = new SingletonDetector(classpath, "", flags);
+    String expected = detector.getOutput(false) + detector.getGraphMlOutput();
+
+    flags.setUseOffHeapModel(true);
+    detector = new SingletonDetector(classpath, "", flags);
+    assertEquals(expected,
+        detector.getOutput(false) + detector.getGraphMlOutput());
+    Clazz singletonOne =
+        detector.getClass(getAsmStyleClassName(SingletonOne.class));
+    assertTrue(singletonOne.isSingleton());
+    assertTrue(detector.getClass(getAsmStyleClassName(SingletonUserOne.class))
+        .uses(singletonOne));
+    detector.close();
+  }
+
+  public void testEdgeWeights() {
+    Flags flags = new Flags();
+    flags.setRecordsEdgeMethods(true);
+    detector = new SingletonDetector(root, path, flags,
+        getAsmStyleClassName(SingletonOne.class),
+        getAsmStyleClassName(SingletonUserOne.class));
+    String graphMlOutput = detector.getGraphMlOutput();
+    assertTrue(graphMlOutput.contains("<data key=\"d2\">1</data>"));
+    assertTrue(graphMlOutput.contains("<data key=\"d3\">1</data>"));
+    assertTrue(
+        graphMlOutput.contains("<data key=\"d4\">&lt;init&gt;()V</data>"));
+
+    // One use of one call site falls short of a threshold of two sites
+    flags.setThreshold(2);
+    flags.setCountsCallSites(true);
+    detector = new SingletonDetector(root, path, flags,
+        getAsmStyleClassName(SingletonOne.class),
+        getAsmStyleClassName(SingletonUserOne.class));
+    assertFalse(
+        detector.getClass(getAsmStyleClassName(SingletonOne.class)).isDrawn());
+  }
+
+  public void testRereadGivesSameOutput() throws IOException {
+    String classpath = "target/test-classes" + File.pathSeparator
+        + ClassReader.class.getProtectionDomain().getCodeSource()
+            .getLocation().getPath();
+    Flags flags = new Flags();
+    flags.setShowStats(true);
+    detector = new SingletonDetector(classpath, "", flags);
+    String expected = detector.getGraphMlOutput();
+
+    flags.setRereadsClasses(true);
+    flags.setMaxClassBytes(4096);
+    detector = new SingletonDetector(classpath, "", flags);
+    assertEquals(expected, detector.getGraphMlOutput());
+    assertTrue(detector.getOutput(false).contains("Bytes re-read: "));
+    assertFalse(detector.getOutput(false).contains("Bytes re-read: 0"));
+  }
+
+  public void testRereadFailsOnASourceReadOnce() {
+    final ClassSource once = new ClassSource() {
+      private boolean read = false;
+
+      public void accept(ClassSourceVisitor visitor) {
+        if (!read) {
+          read = true;
+          for (Class<?> clazz : new Class<?>[] {
+              SingletonOne.class, SingletonUserOne.class}) {
+            try {
+              byte[] classFile = ArchiveFixtures.read(root.getResourceAsStream(
+                  getAsmStyleClassName(clazz) + ".class"));
+              visitor.visitClass(new ClassReader(classFile), classFile);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }
+      }
+
+      public void close() {
+      }
+    };
+    Flags flags = new Flags();
+    flags.setRereadsClasses(true);
+    try {
+      new SingletonDetector(once, path, flags);
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Only 0 of 2"));
+    }
+  }
+
+  public void testRereadFailsOnStandardInput() throws IOException {
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    for (Class<?> clazz : new Class<?>[] {
+        SingletonOne.class, SingletonUserOne.class}) {
+      String name = getAsmStyleClassName(clazz) + ".class";
+      ArchiveFixtures.addTarEntry(tar, name,
+          ArchiveFixtures.read(root.getResourceAsStream(name)));
+    }
+    ArchiveFixtures.endTar(tar);
+
+    // Standard input is streamed once and not kept for the second pass
+    ClasspathRoot stdin = new TarClasspathRoot(
+        new ByteArrayInputStream(tar.toByteArray()), "stdin");
+    Flags flags = new Flags();
+    flags.setRereadsClasses(true);
+    try {
+      new SingletonDetector(new ClasspathClassSource(stdin, path, false),
+          path, flags);
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("stdin can only be read once", e.getCause().getMessage());
+    }
+  }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2007 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.singletondetector;
+
+import static com.google.singletondetector.ArchiveFixtures.*;
+
+import com.google.singletondetector.classpath.ClassFileVisitor;
+import com.google.singletondetector.classpath.ClasspathRoot;
+import com.google.singletondetector.classpath.MultiRelease;
+import com.google.singletondetector.classpath.TarClasspathRoot;
+import com.google.singletondetector.p1.HingletonOne;
+import com.google.singletondetector.p2.SingletonOne;
+import com.google.singletondetector.p2.SingletonUserOne;
+import com.google.singletondetector.p3.HingletonUserOne;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class TarClasspathRootTest extends TestCase {
+  // The common prefix for all test classes
+  private String path = "com/google/singletondetector/";
+
+  // A gzipped image layer: p1 loose under an unrelated path, p2 in a jar and
+  // p3 in a tar inside the tar, with a name too long for a plain header
+  private byte[] layer;
+
+  @Override
+  protected void setUp() throws IOException {
+    ByteArrayOutputStream inner = new ByteArrayOutputStream();
+    String deep = "opt/" + repeat("very-long-directory-name/", 5) + "classes/";
+    for (File file : new File(CLASSES, path + "p3/").listFiles()) {
+      addTarEntry(inner, deep + file.getName(), read(file));
+    }
+    endTar(inner);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    for (File file : new File(CLASSES, path + "p1/").listFiles()) {
+      addTarEntry(out, "app/classes/" + file.getName(), read(file));
+    }
+    addTarEntry(out, "app/lib/p2.jar", archiveOf(path + "p2/"));
+    addTarEntry(out, "app/layer.tar", inner.toByteArray());
+    endTar(out);
+    out.close();
+    layer = bytes.toByteArray();
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      buf.append(s);
+    }
+    return buf.toString();
+  }
+
+  private List<String> scan(ClasspathRoot root) throws IOException {
+    final List<String> visited = new ArrayList<String>();
+    root.accept(new ClassFileVisitor() {
+      public boolean wantsPackage(String packagePath) {
+        return true;
+      }
+
+      public boolean wantsClassFile(String resourceName) {
+        return true;
+      }
+
+      public void visitClassFile(String resourceName, byte[] bytes) {
+        visited.add(resourceName);
+      }
+    });
+    return visited;
+  }
+
+  /*************************************************************************/
+  /*                                 TESTS                                 */
+  /*************************************************************************/
+
+  public void testStreamIsReplayedOnLaterPassesIfAsked() throws IOException {
+    TarClasspathRoot root = new TarClasspathRoot(
+        new ByteArrayInputStream(layer), "stdin",
+        MultiRelease.runtimeRelease(), true);
+    List<String> first = scan(root);
+    assertTrue(first.contains(path + "p1/HingletonOne.class"));
+    assertTrue(first.contains(path + "p2/SingletonOne.class"));
+    assertTrue(first.contains(path + "p3/HingletonUserOne.class"));
+    assertEquals(first, scan(root));
+    assertNotNull(root.getResourceAsStream(path + "p3/HingletonUserOne.class"));
+    assertTrue(root.getResources(path + "p1/").contains("HingletonOne.class"));
+    root.close();
+  }
+
+  public void testStreamIsReadOnlyOnceOtherwise() throws IOException {
+    TarClasspathRoot root =
+        new TarClasspathRoot(new ByteArrayInputStream(layer), "stdin");
+    assertTrue(scan(root).contains(path + "p2/SingletonOne.class"));
+    try {
+      scan(root);
+      fail();
+    } catch (IOException e) {
+      assertEquals("stdin can only be read once", e.getMessage());
+    }
+    root.close();
+  }
+
+  public void testDetectsSingletonsInsideTarGz() throws IOException {
+    File file = File.createTempFile("layer", ".tar.gz");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(layer);
+      out.close();
+
+      SingletonDetector detector =
+          new SingletonDetector(file.getPath(), path, new Flags());
+      Clazz singletonOne =
+          detector.getClass(SingletonOne.class.getName().replace('.', '/'));
+      Clazz singletonUserOne = detector.getClass(
+          SingletonUserOne.class.getName().replace('.', '/'));
+      Clazz hingletonOne =
+          detector.getClass(HingletonOne.class.getName().replace('.', '/'));
+      Clazz hingletonUserOne = detector.getClass(
+          HingletonUserOne.class.getName().replace('.', '/'));
+      assertTrue(singletonOne.isSingleton());
+      assertTrue(singletonUserOne.uses(singletonOne));
+      assertTrue(hingletonUserOne.uses(hingletonOne));
+    } finally {
+      file.delete();
+    }
+  }
+}